@@ -0,0 +1,212 @@
+/**
+ *
+ */
+package us.brianfeldman.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * CSVShapes writes the csv files the benchmarks read, one per shape and size.
+ *
+ * Shapes:
+ *   narrow		4 short unquoted columns.
+ *   wide		64 unquoted columns.
+ *   unquoted	8 mixed columns, no quotes.
+ *   quoted		the same 8 columns with every text column quoted, some holding
+ *   			separators, doubled quotes and line breaks.
+ *   comments	the unquoted shape with a comment line and a blank line before every record.
+ *
+ * Files are generated from a fixed seed, so every run reads the same bytes, and are kept
+ * in the given directory between runs; a file is only written when missing.
+ *
+ * @author Brian G. Feldman (bgfeldm@yahoo.com)
+ *
+ */
+public class CSVShapes {
+
+	public static final String[] SHAPES = {"narrow", "wide", "unquoted", "quoted", "comments"};
+
+	private static final long SEED = 20150401L;
+	private static final int WIDE_COLUMNS = 64;
+
+	private static final String[] WORDS = {
+		"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel", "india", "juliet",
+		"kilo", "lima", "mike", "november", "oscar", "papa", "quebec", "romeo", "sierra", "tango"
+	};
+
+	private CSVShapes(){
+		// static utility.
+	}
+
+	/**
+	 * Get the file of a shape and size, writing it first when missing.
+	 *
+	 * @param directory
+	 * @param shape		one of SHAPES.
+	 * @param size		approximate file size, e.g. 16K, 256M or 1G.
+	 * @return csv file
+	 * @throws IOException
+	 */
+	public static File get(final File directory, final String shape, final String size) throws IOException {
+		File file = new File(directory, shape + "-" + size + ".csv");
+		if (!file.exists()){
+			directory.mkdirs();
+			File partial = new File(directory, file.getName() + ".tmp");
+			write(partial, shape, parseSize(size));
+			if (!partial.renameTo(file)){
+				throw new IOException("Failed to rename " + partial.getAbsolutePath());
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * @param size	bytes with an optional K, M or G suffix.
+	 * @return size in bytes.
+	 */
+	public static long parseSize(final String size){
+		String value = size.trim().toUpperCase();
+		long multiplier = 1;
+		char unit = value.charAt(value.length() - 1);
+		if (unit == 'K' || unit == 'M' || unit == 'G'){
+			multiplier = (unit == 'K' ? 1L << 10 : unit == 'M' ? 1L << 20 : 1L << 30);
+			value = value.substring(0, value.length() - 1);
+		}
+		return Long.parseLong(value) * multiplier;
+	}
+
+	/**
+	 * Write records of a shape until the file reaches the wanted size.
+	 *
+	 * @param file
+	 * @param shape
+	 * @param bytes
+	 * @throws IOException
+	 */
+	public static void write(final File file, final String shape, final long bytes) throws IOException {
+		Random random = new Random(SEED);
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+		try {
+			long written = 0;
+			String header = header(shape);
+			writer.write(header);
+			written += header.length();
+
+			StringBuilder record = new StringBuilder(1024);
+			for(int id=1; written < bytes; id++){
+				record.setLength(0);
+				record(record, shape, id, random);
+				writer.append(record);
+				written += record.length();
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static String header(final String shape){
+		if ("narrow".equals(shape)){
+			return "id,code,name,amount\n";
+		}
+		if ("wide".equals(shape)){
+			StringBuilder header = new StringBuilder("id");
+			for(int c=1; c < WIDE_COLUMNS; c++){
+				header.append(",col").append(c);
+			}
+			return header.append('\n').toString();
+		}
+		if ("unquoted".equals(shape) || "quoted".equals(shape) || "comments".equals(shape)){
+			return "id,name,city,description,amount,date,code,notes\n";
+		}
+		throw new IllegalArgumentException("Unknown shape: " + shape);
+	}
+
+	private static void record(final StringBuilder record, final String shape, final int id, final Random random){
+		if ("narrow".equals(shape)){
+			record.append(id).append(',').append(word(random)).append(',').append(word(random)).append(',').append(random.nextInt(100000)).append('\n');
+
+		} else if ("wide".equals(shape)){
+			record.append(id);
+			for(int c=1; c < WIDE_COLUMNS; c++){
+				record.append(',');
+				if (c % 2 == 0){
+					record.append(random.nextInt(10000));
+				} else {
+					record.append(word(random));
+				}
+			}
+			record.append('\n');
+
+		} else if ("unquoted".equals(shape) || "comments".equals(shape)){
+			if ("comments".equals(shape)){
+				record.append("# record ").append(id).append(' ').append(word(random)).append('\n').append('\n');
+			}
+			record.append(id).append(',')
+				.append(word(random)).append(' ').append(word(random)).append(',')
+				.append(word(random)).append(',');
+			sentence(record, random, 6 + random.nextInt(10));
+			record.append(',').append(random.nextInt(1000000) / 100.0).append(',')
+				.append("2015-").append(1 + random.nextInt(12)).append('-').append(1 + random.nextInt(28)).append(',')
+				.append(Integer.toHexString(random.nextInt())).append(',');
+			sentence(record, random, random.nextInt(4));
+			record.append('\n');
+
+		} else if ("quoted".equals(shape)){
+			record.append(id).append(",\"")
+				.append(word(random)).append(", ").append(word(random)).append("\",\"")
+				.append(word(random)).append("\",\"");
+			sentence(record, random, 6 + random.nextInt(10));
+			if (random.nextInt(4) == 0){
+				record.append(" \"\"").append(word(random)).append("\"\"");
+			}
+			record.append("\",").append(random.nextInt(1000000) / 100.0).append(',')
+				.append("2015-").append(1 + random.nextInt(12)).append('-').append(1 + random.nextInt(28)).append(',')
+				.append(Integer.toHexString(random.nextInt())).append(",\"");
+			sentence(record, random, random.nextInt(4));
+			if (random.nextInt(8) == 0){
+				record.append('\n').append(word(random));
+			}
+			record.append("\"\n");
+
+		} else {
+			throw new IllegalArgumentException("Unknown shape: " + shape);
+		}
+	}
+
+	private static String word(final Random random){
+		return WORDS[random.nextInt(WORDS.length)];
+	}
+
+	private static void sentence(final StringBuilder record, final Random random, final int words){
+		for(int w=0; w < words; w++){
+			if (w > 0){
+				record.append(' ');
+			}
+			record.append(word(random));
+		}
+	}
+
+	/**
+	 * Main method used for writing the benchmark files up front.
+	 *
+	 * @param args	directory followed by sizes, e.g. build/bench/data 16K 256M
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		File directory = new File(args[0]);
+		for(int s=1; s < args.length; s++){
+			for(String shape : SHAPES){
+				File file = get(directory, shape, args[s]);
+				System.out.println(file.getAbsolutePath() + " " + file.length());
+			}
+		}
+	}
+
+}
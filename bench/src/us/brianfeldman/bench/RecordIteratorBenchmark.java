@@ -0,0 +1,131 @@
+/**
+ *
+ */
+package us.brianfeldman.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import us.brianfeldman.fileformat.csv.JCSVReader;
+import us.brianfeldman.fileformat.csv.JavaCSVReader;
+import us.brianfeldman.fileformat.csv.MappedCSVReader;
+import us.brianfeldman.fileformat.csv.OpenCSVReader;
+import us.brianfeldman.fileformat.csv.RecordBatch;
+import us.brianfeldman.fileformat.csv.RecordIterator;
+import us.brianfeldman.fileformat.csv.SimpleCSVReader;
+import us.brianfeldman.fileformat.csv.SuperCSVReader;
+
+/**
+ * RecordIteratorBenchmark measures how fast each RecordIterator reads a whole file,
+ * across file shapes and sizes (see CSVShapes).
+ *
+ * One operation is one file read from open to close, so for the same size the scores compare
+ * directly; multiply by the file size for bytes per second. Run with "-prof gc" for the
+ * allocation rate (gc.alloc.rate.norm is bytes allocated per file).
+ *
+ * records reads through hasNext()/next() as the record-at-a-time indexer does;
+ * batches refills one RecordBatch as the batched indexer does.
+ *
+ * Not every reader returns the same records: SimpleCSVReader splits on separators only,
+ * and OpenCSVReader and JavaCSVReader do not skip comment lines. Their numbers on the
+ * quoted and comments shapes are for reference only.
+ *
+ * @author Brian G. Feldman (bgfeldm@yahoo.com)
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class RecordIteratorBenchmark {
+
+	@Param({"Mapped", "SuperCSV", "JCSV", "JavaCSV", "OpenCSV", "Simple"})
+	public String reader;
+
+	@Param({"narrow", "wide", "unquoted", "quoted", "comments"})
+	public String shape;
+
+	@Param({"16K", "256M"})
+	public String size;
+
+	@Param({"256"})
+	public int batchSize;
+
+	private File file;
+	private RecordIterator prototype;
+	private RecordBatch batch;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		File directory = new File(System.getProperty("bench.data", "build/bench/data"));
+		file = CSVShapes.get(directory, shape, size);
+		prototype = create(reader);
+		batch = new RecordBatch(batchSize);
+	}
+
+	/**
+	 * Create a reader by its short name, with the settings the indexer uses.
+	 *
+	 * @param name
+	 * @return reader
+	 */
+	static RecordIterator create(final String name){
+		switch(name){
+			case "Mapped":		return new MappedCSVReader(',', '"', '#');
+			case "SuperCSV":	return new SuperCSVReader(',', '"', '#');
+			case "JCSV":		return new JCSVReader(',', '"', '#');
+			case "JavaCSV":		return new JavaCSVReader(',', '"', '#');
+			case "OpenCSV":		return new OpenCSVReader(',', '"');
+			case "Simple":		return new SimpleCSVReader(',');
+			default:
+				throw new IllegalArgumentException("Unknown reader: " + name);
+		}
+	}
+
+	@Benchmark
+	public long records(final Blackhole blackhole) throws IOException {
+		RecordIterator csv = prototype.newReader();
+		csv.open(file);
+		long count = 0;
+		while(csv.hasNext()){
+			blackhole.consume(csv.next());
+			count++;
+		}
+		csv.close();
+		return count;
+	}
+
+	@Benchmark
+	public long batches(final Blackhole blackhole) throws IOException {
+		RecordIterator csv = prototype.newReader();
+		csv.open(file);
+		long count = 0;
+		do {
+			csv.nextBatch(batch);
+			for(int r=0; r < batch.size(); r++){
+				blackhole.consume(batch.getRecord(r));
+			}
+			count += batch.size();
+		} while(!batch.isEmpty());
+		csv.close();
+		return count;
+	}
+
+}
@@ -0,0 +1,93 @@
+/**
+ *
+ */
+package us.brianfeldman.fileformat.csv;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * CSVInput opens csv files for the readers, transparently decompressing gzip files.
+ *
+ * Gzip files are recognized by their magic bytes rather than by name, and are decompressed
+ * on background threads by ParallelGzipInputStream.
+ *
+ * @author Brian G. Feldman (bgfeldm@yahoo.com)
+ *
+ */
+public class CSVInput {
+
+	/** Encoding of csv files unless configured otherwise, rather than the platform default. */
+	public static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
+
+	private static final int GZIP_MAGIC_1 = 0x1f;
+	private static final int GZIP_MAGIC_2 = 0x8b;
+
+	private CSVInput(){
+		// static utility.
+	}
+
+	/**
+	 * Check whether a file is gzip compressed.
+	 *
+	 * @param file
+	 * @return true when the file starts with the gzip magic bytes.
+	 * @throws IOException
+	 */
+	public static boolean isGzip(final File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return (in.read() == GZIP_MAGIC_1 && in.read() == GZIP_MAGIC_2);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Check whether a file already open is gzip compressed, without opening it again.
+	 *
+	 * @param channel
+	 * @return true when the file starts with the gzip magic bytes.
+	 * @throws IOException
+	 */
+	public static boolean isGzip(final FileChannel channel) throws IOException {
+		ByteBuffer magic = ByteBuffer.allocate(2);
+		while(magic.hasRemaining() && channel.read(magic, magic.position()) >= 0){
+			// a positional read leaves the channel's position alone.
+		}
+		return (magic.position() == 2 && (magic.get(0) & 0xFF) == GZIP_MAGIC_1 && (magic.get(1) & 0xFF) == GZIP_MAGIC_2);
+	}
+
+	/**
+	 * Open a file for reading, decompressing it when it is gzip compressed.
+	 *
+	 * @param file
+	 * @return input stream of the uncompressed bytes.
+	 * @throws IOException
+	 */
+	public static InputStream open(final File file) throws IOException {
+		return open(file, isGzip(file));
+	}
+
+	/**
+	 * Open a file for reading, when whether it is gzip compressed is already known.
+	 *
+	 * @param file
+	 * @param gzip		result of isGzip(file).
+	 * @return input stream of the uncompressed bytes.
+	 * @throws IOException
+	 */
+	public static InputStream open(final File file, final boolean gzip) throws IOException {
+		if (gzip){
+			return new ParallelGzipInputStream(file);
+		}
+		return new FileInputStream(file);
+	}
+
+}
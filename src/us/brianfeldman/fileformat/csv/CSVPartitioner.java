@@ -0,0 +1,494 @@
+/**
+ *
+ */
+package us.brianfeldman.fileformat.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * CSVPartitioner cuts a single csv file into byte ranges which can be parsed on separate threads.
+ *
+ * A byte offset picked by size may land inside a quoted field containing newlines, so each cut is
+ * moved forward to the next true record boundary. The bytes following a cut are read twice, taking
+ * the cut as outside and as inside a quoted field; the reading that puts a quote where well formed
+ * csv can not have one is dropped, and the other gives the boundary. Only when neither or both hold
+ * up, or no boundary follows closely, are the records between the previous boundary and the cut scanned
+ * with the same rules as MappedCSVReader. Line breaks of each range but the last are then counted on
+ * a thread per range, so each partition knows the line number of its first record.
+ * When the file has a current RecordOffsets sidecar the cuts are taken from it instead, and
+ * only the header is read.
+ *
+ * @author Brian G. Feldman (bgfeldm@yahoo.com)
+ *
+ */
+public class CSVPartitioner {
+	private static final Logger LOG = LoggerFactory.getLogger(CSVPartitioner.class);
+
+	private static final byte LF = '\n';
+	private static final byte CR = '\r';
+	private static final byte SPACE = ' ';
+
+	private static final int RESYNC_SIZE = 1024 * 1024;  // bytes read past a cut to find the boundary following it.
+	private static final int COUNT_WINDOW_SIZE = 64 * 1024 * 1024;  // bytes mapped at a time when counting lines.
+	private static final int INVALID = -2;
+
+	private final MappedCSVReader prototype;
+	private final byte separator;
+	private final byte quote;
+	private final int comment;
+	private final CSVTokenizer tokenizer;
+
+	/**
+	 * @param prototype		reader whose separator, quote and comment settings are used for scanning and for each partition.
+	 */
+	public CSVPartitioner(final MappedCSVReader prototype){
+		this.prototype = prototype;
+		this.separator = prototype.getSeparatorByte();
+		this.quote = prototype.getQuoteByte();
+		this.comment = prototype.getCommentByte();
+		this.tokenizer = new CSVTokenizer(separator, quote);
+	}
+
+	/**
+	 * Byte range of a csv file, starting and ending on record boundaries.
+	 */
+	public static class Partition {
+		private final File file;
+		private final String[] header;
+		private final long start;
+		private final long end;
+		private final int lineNumber;
+
+		/**
+		 * @param file
+		 * @param header		header read from the start of the file.
+		 * @param start			absolute position of the first record, on a record boundary.
+		 * @param end			absolute position just past the last record.
+		 * @param lineNumber	line number of the first record.
+		 */
+		public Partition(final File file, final String[] header, final long start, final long end, final int lineNumber){
+			this.file = file;
+			this.header = header;
+			this.start = start;
+			this.end = end;
+			this.lineNumber = lineNumber;
+		}
+
+		/**
+		 * @return file the partition belongs to.
+		 */
+		public File getFile() { return file; }
+
+		/**
+		 * @return absolute byte position of the first record.
+		 */
+		public long getStart() { return start; }
+
+		/**
+		 * @return absolute byte position just past the last record.
+		 */
+		public long getEnd() { return end; }
+
+		/**
+		 * @return line number of the first record.
+		 */
+		public int getLineNumber() { return lineNumber; }
+
+		/**
+		 * @return header read from the start of the file.
+		 */
+		public String[] getHeader() { return header; }
+
+		@Override
+		public String toString(){
+			return file.getName() + "[" + start + "-" + end + ") line " + lineNumber;
+		}
+	}
+
+	/**
+	 * Cut a file into byte ranges of roughly equal size.
+	 *
+	 * @param file
+	 * @param count		number of partitions wanted; fewer are returned when the file has fewer records.
+	 * @return partitions in file order.
+	 * @throws IOException
+	 */
+	public List<Partition> partition(final File file, final int count) throws IOException {
+		MappedCSVReader scanner = prototype.newReader();
+		scanner.open(file);
+		String[] header = scanner.getHeader();
+		long first = scanner.getRecordPosition();
+		int lineNumber = scanner.getRecordLineNumber();
+		scanner.close();
+
+		long end = file.length();
+		long step = (end - first) / Math.max(count, 1);
+		List<Long> boundaries = new ArrayList<Long>(count);
+		int[] lineNumbers;
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			long start = first;
+			for(int p=1; p < count; p++){
+				long cut = Math.max(first + step * p, start + 1);
+				if (cut >= end){
+					break;
+				}
+				long boundary = resync(channel, cut, end);
+				if (boundary < 0){
+					boundary = scanTo(file, header, start, cut, end);
+				}
+				if (boundary >= end){
+					break;
+				}
+				boundaries.add(start);
+				start = boundary;
+			}
+			boundaries.add(start);
+			lineNumbers = countLines(channel, boundaries, lineNumber);
+		} finally {
+			randomAccessFile.close();
+		}
+
+		List<Partition> partitions = new ArrayList<Partition>(boundaries.size());
+		for(int p=0; p < boundaries.size(); p++){
+			long partitionEnd = (p + 1 < boundaries.size() ? boundaries.get(p + 1) : end);
+			partitions.add(new Partition(file, header, boundaries.get(p), partitionEnd, lineNumbers[p]));
+		}
+		LOG.debug("Partitioned {} into {} ranges", file.getAbsolutePath(), partitions.size());
+		return partitions;
+	}
+
+	/**
+	 * Find the first record boundary after a cut from the bytes following it.
+	 *
+	 * @param channel
+	 * @param cut		absolute position picked by size, past the first record.
+	 * @param end		length of the file.
+	 * @return absolute position of the boundary, end when no record follows, or -1 when it can not be told.
+	 * @throws IOException
+	 */
+	private long resync(final FileChannel channel, final long cut, final long end) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate((int) Math.min(RESYNC_SIZE, end - cut + 1));
+		while(buf.hasRemaining() && channel.read(buf, cut - 1 + buf.position()) >= 0){
+			// read from just before the cut, which tells whether the cut starts a field.
+		}
+		buf.flip();
+		boolean atEnd = (cut - 1 + buf.limit() >= end);
+
+		int outside = scan(buf, atEnd, false);
+		int inside = scan(buf, atEnd, true);
+		int boundary;
+		if (inside == INVALID && outside != INVALID){
+			boundary = outside;
+		} else if (outside == INVALID && inside != INVALID){
+			boundary = inside;
+		} else if (outside != INVALID && !contains(buf, quote)){
+			boundary = outside;  // inside would mean a quoted field running on past every byte read.
+		} else {
+			return -1;
+		}
+		if (boundary < 0){
+			return (atEnd ? end : -1);
+		}
+		return cut - 1 + boundary;
+	}
+
+	/**
+	 * Read bytes as csv, taking the first of them to be outside or inside a quoted field.
+	 *
+	 * A quote opening a quoted part must start a field, leading spaces aside, and a quote closing it
+	 * must be followed by a separator or line break, trailing spaces aside.
+	 *
+	 * @param buf		bytes from just before a cut.
+	 * @param atEnd		whether the bytes run to the end of the file.
+	 * @param quoted	whether the cut is taken to be inside a quoted field.
+	 * @return index of the first record boundary, -1 when there is none, or INVALID when a quote is out of place.
+	 */
+	private int scan(final ByteBuffer buf, final boolean atEnd, final boolean quoted){
+		final int limit = buf.limit();
+		byte b = buf.get(0);
+		boolean lineStart = (b == LF || b == CR);
+		boolean fieldStart = (lineStart || b == separator);
+		boolean closed = false;  // a quoted part just ended.
+		boolean inQuotes = quoted;
+		int boundary = -1;
+
+		for(int i=1; i < limit; i++){
+			b = buf.get(i);
+			if (inQuotes){
+				if (b == quote){
+					if (i + 1 >= limit && !atEnd){
+						break;  // an escaped quote can not be told from a closing one.
+					}
+					if (i + 1 < limit && buf.get(i + 1) == quote){
+						i++;
+					} else {
+						inQuotes = false;
+						closed = true;
+					}
+				}
+				continue;
+			}
+			if (lineStart && b == comment){
+				i = tokenizer.indexOfLineEnd(buf, i, limit) - 1;  // comment lines hold no fields.
+				lineStart = false;
+				continue;
+			}
+			lineStart = false;
+			if (b == LF || b == CR){
+				if (b == CR && i + 1 >= limit && !atEnd){
+					break;  // CRLF may be cut in two.
+				}
+				if (b == CR && i + 1 < limit && buf.get(i + 1) == LF){
+					i++;
+				}
+				if (boundary < 0){
+					boundary = i + 1;
+				}
+				lineStart = true;
+				fieldStart = true;
+				closed = false;
+			} else if (b == separator){
+				fieldStart = true;
+				closed = false;
+			} else if (b == SPACE){
+				continue;
+			} else if (closed || (b == quote && !fieldStart)){
+				return INVALID;
+			} else {
+				inQuotes = (b == quote);
+				fieldStart = false;
+			}
+		}
+		if (inQuotes && atEnd){
+			return INVALID;  // a quoted field left open at the end of the file.
+		}
+		return boundary;
+	}
+
+	private static boolean contains(final ByteBuffer buf, final byte value){
+		for(int i=0; i < buf.limit(); i++){
+			if (buf.get(i) == value){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Find the first record boundary at or after a cut by scanning the records from an earlier boundary.
+	 *
+	 * @param file
+	 * @param header
+	 * @param start		absolute position of a record boundary before the cut.
+	 * @param cut
+	 * @param end		length of the file.
+	 * @return absolute position of the boundary, or end when no record follows.
+	 * @throws IOException
+	 */
+	private long scanTo(final File file, final String[] header, final long start, final long cut, final long end) throws IOException {
+		MappedCSVReader scanner = prototype.newReader();
+		scanner.open(file, start, end, 1, header);  // lines are counted afterwards.
+		try {
+			while(scanner.hasNext() && scanner.getRecordPosition() < cut){
+				scanner.skip();
+			}
+			return (scanner.hasNext() ? scanner.getRecordPosition() : end);
+		} finally {
+			scanner.close();
+		}
+	}
+
+	/**
+	 * Count the line breaks of each range but the last, each on its own thread, to number the first line of every range.
+	 *
+	 * @param channel
+	 * @param boundaries	absolute position of the start of each range.
+	 * @param lineNumber	line number of the first range.
+	 * @return line number of the first record of each range.
+	 * @throws IOException
+	 */
+	private int[] countLines(final FileChannel channel, final List<Long> boundaries, final int lineNumber) throws IOException {
+		final long[] lines = new long[boundaries.size()];
+		final IOException[] failures = new IOException[boundaries.size()];
+		List<Thread> threads = new ArrayList<Thread>(boundaries.size());
+		for(int p=0; p + 1 < boundaries.size(); p++){
+			final int range = p;
+			final long from = boundaries.get(p);
+			final long to = boundaries.get(p + 1);
+			Thread thread = new Thread("count-lines-" + p){
+				@Override
+				public void run(){
+					try {
+						lines[range] = countLineBreaks(channel, from, to);
+					} catch (IOException e) {
+						failures[range] = e;
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		for(Thread thread : threads){
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while counting lines", e);
+			}
+		}
+
+		int[] lineNumbers = new int[boundaries.size()];
+		lineNumbers[0] = lineNumber;
+		for(int p=1; p < lineNumbers.length; p++){
+			if (failures[p - 1] != null){
+				throw failures[p - 1];
+			}
+			lineNumbers[p] = (int) (lineNumbers[p - 1] + lines[p - 1]);
+		}
+		return lineNumbers;
+	}
+
+	/**
+	 * Count line breaks the way MappedCSVReader numbers lines: LF, CR LF or a lone CR, within quoted fields too.
+	 *
+	 * @param channel
+	 * @param from		absolute position of the first byte counted.
+	 * @param to		absolute position just past the last byte counted, which is not within a CR LF.
+	 * @return line breaks
+	 * @throws IOException
+	 */
+	private long countLineBreaks(final FileChannel channel, final long from, final long to) throws IOException {
+		long lines = 0;
+		for(long start = from; start < to; start += COUNT_WINDOW_SIZE){
+			int size = (int) Math.min(COUNT_WINDOW_SIZE, to - start);
+			ByteBuffer buf = CSVTokenizer.order( channel.map(FileChannel.MapMode.READ_ONLY, start, size) );
+			int i = tokenizer.indexOfLineEnd(buf, 0, size);
+			while(i < size){
+				if (buf.get(i) == LF || !isFollowedByLF(channel, buf, i, start, to)){
+					lines++;  // a CR followed by LF is counted at the LF.
+				}
+				i = tokenizer.indexOfLineEnd(buf, i + 1, size);
+			}
+		}
+		return lines;
+	}
+
+	private static boolean isFollowedByLF(final FileChannel channel, final ByteBuffer buf, final int i, final long start, final long to) throws IOException {
+		if (i + 1 < buf.limit()){
+			return buf.get(i + 1) == LF;
+		}
+		if (start + i + 1 >= to){
+			return false;
+		}
+		ByteBuffer next = ByteBuffer.allocate(1);
+		return channel.read(next, start + i + 1) == 1 && next.get(0) == LF;
+	}
+
+	/**
+	 * Cut a file into byte ranges of roughly equal size at record offsets from its sidecar, without a prepass.
+	 *
+	 * @param file
+	 * @param count		number of partitions wanted; fewer are returned when the sidecar has fewer offsets.
+	 * @param offsets	current offsets of the file.
+	 * @return partitions in file order.
+	 * @throws IOException
+	 */
+	public List<Partition> partition(final File file, final int count, final RecordOffsets offsets) throws IOException {
+		List<Partition> partitions = new ArrayList<Partition>(count);
+
+		MappedCSVReader scanner = prototype.newReader();
+		scanner.open(file);
+		String[] header = scanner.getHeader();
+		long start = scanner.getRecordPosition();
+		int lineNumber = scanner.getRecordLineNumber();
+		scanner.close();
+
+		long end = file.length();
+		long step = (end - start) / Math.max(count, 1);
+		long first = start;
+		for(int p=1; p < count; p++){
+			int i = offsets.ceilingByOffset(first + step * p);
+			if (i >= offsets.size()){
+				break;
+			}
+			long boundary = offsets.getOffset(i);
+			if (boundary <= start){
+				continue;
+			}
+			partitions.add(new Partition(file, header, start, boundary, lineNumber));
+			start = boundary;
+			lineNumber = offsets.getLineNumber(i);
+		}
+		partitions.add(new Partition(file, header, start, end, lineNumber));
+		LOG.debug("Partitioned {} into {} ranges from record offsets", file.getAbsolutePath(), partitions.size());
+
+		return partitions;
+	}
+
+	/**
+	 * Open a reader on a single partition.
+	 *
+	 * @param partition
+	 * @return reader positioned on the first record of the partition.
+	 * @throws IOException
+	 */
+	public MappedCSVReader open(final Partition partition) throws IOException {
+		return open(partition, null);
+	}
+
+	/**
+	 * Open a reader on a single partition, collecting the offsets of its records.
+	 *
+	 * @param partition
+	 * @param offsetBuilder		builder for the partition's offsets, or null.
+	 * @return reader positioned on the first record of the partition.
+	 * @throws IOException
+	 */
+	public MappedCSVReader open(final Partition partition, final RecordOffsets.Builder offsetBuilder) throws IOException {
+		MappedCSVReader reader = prototype.newReader();
+		reader.setOffsetBuilder(offsetBuilder);
+		reader.open(partition.getFile(), partition.getStart(), partition.getEnd(), partition.getLineNumber(), partition.getHeader());
+		return reader;
+	}
+
+	/**
+	 * Main method used for testing.
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		String filename = args[0];
+		int count = (args.length > 1 ? Integer.parseInt(args[1]) : 4);
+
+		Stopwatch stopwatch = Stopwatch.createStarted();
+
+		CSVPartitioner partitioner = new CSVPartitioner(new MappedCSVReader(',', '"', '#'));
+		for(Partition partition : partitioner.partition(new File(filename), count)){
+			MappedCSVReader reader = partitioner.open(partition);
+			int records = 0;
+			while(reader.hasNext()){
+				reader.skip();
+				records++;
+			}
+			reader.close();
+			System.out.println(partition + " records: " + records);
+		}
+
+		stopwatch.stop();
+		System.out.println("time: "+stopwatch);
+	}
+
+}
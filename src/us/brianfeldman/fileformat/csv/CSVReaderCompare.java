@@ -0,0 +1,165 @@
+/**
+ *
+ */
+package us.brianfeldman.fileformat.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * CSVReaderCompare checks the native MappedCSVReader against SuperCSVReader over a corpus of csv files.
+ *
+ * Every file is read through SuperCSVReader as the reference, then through MappedCSVReader
+ * record by record, batch by batch, mapped as well as read onto the heap, and for small files with
+ * a tiny window so that every record crosses a window end. Header, field values and record count must all match.
+ *
+ * Line numbers must match too. SuperCSV gives the line a record ends on and MappedCSVReader the line it
+ * starts on; both count LF, CR LF and a lone CR as one line break, and return line breaks within quotes
+ * as LF, so the end line is the start line plus the LFs in the record's values.
+ *
+ * @author Brian G. Feldman (bgfeldm@yahoo.com)
+ *
+ */
+public class CSVReaderCompare {
+
+	private static final int TINY_WINDOW = 16;
+	private static final long TINY_WINDOW_MAX_FILE = 1024 * 1024;  // each window is a mapping of its own.
+
+	private int failures = 0;
+
+	/**
+	 * Compare all readers on one file.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void compare(final File file) throws IOException {
+		SuperCSVReader reference = new SuperCSVReader(',', '"', '#');
+		reference.open(file);
+		String[] header = reference.getHeader();
+		List<String[]> expected = new ArrayList<String[]>();
+		List<Integer> expectedLines = new ArrayList<Integer>();
+		while(reference.hasNext()){
+			expectedLines.add(reference.getLineNumber());  // of the record read ahead, which next() returns.
+			expected.add(reference.next());
+		}
+		reference.close();
+
+		MappedCSVReader reader = new MappedCSVReader(',', '"', '#');
+		check(file, "records", header, expected, expectedLines, reader, false);
+		check(file, "batches", header, expected, expectedLines, reader, true);
+
+		MappedCSVReader mapped = new MappedCSVReader(',', '"', '#');
+		mapped.setMinMappedSize(0);
+		check(file, "mapped", header, expected, expectedLines, mapped, false);
+
+		if (file.length() <= TINY_WINDOW_MAX_FILE){
+			reader.setWindowSize(TINY_WINDOW);
+			check(file, "tiny window", header, expected, expectedLines, reader, false);
+			mapped.setWindowSize(TINY_WINDOW);
+			check(file, "tiny mapped window", header, expected, expectedLines, mapped, true);
+		}
+	}
+
+	private void check(final File file, final String mode, final String[] header, final List<String[]> expected, final List<Integer> expectedLines,
+			final MappedCSVReader reader, final boolean batches) throws IOException {
+		reader.open(file);
+		List<String[]> actual = new ArrayList<String[]>();
+		List<Integer> actualLines = new ArrayList<Integer>();
+		if (batches){
+			RecordBatch batch = new RecordBatch(7);
+			do {
+				reader.nextBatch(batch);
+				for(int i=0; i < batch.size(); i++){
+					actual.add(batch.getRecord(i).toArray());
+					actualLines.add(endLine(batch.getLineNumber(i), actual.get(actual.size() - 1)));
+				}
+			} while(!batch.isEmpty());
+		} else {
+			while(reader.hasNext()){
+				actual.add(reader.next());
+				actualLines.add(endLine(reader.getLineNumber(), actual.get(actual.size() - 1)));
+			}
+		}
+		String[] actualHeader = reader.getHeader();
+		reader.close();
+
+		String prefix = file.getName() + " (" + mode + ")";
+		if (!Arrays.equals(header, actualHeader)){
+			fail(prefix + " header: expected " + Arrays.toString(header) + " got " + Arrays.toString(actualHeader));
+		}
+		for(int r=0; r < Math.min(expected.size(), actual.size()); r++){
+			if (!Arrays.equals(expected.get(r), actual.get(r))){
+				fail(prefix + " record " + (r+1) + ": expected " + Arrays.toString(expected.get(r)) + " got " + Arrays.toString(actual.get(r)));
+			} else if (!expectedLines.get(r).equals(actualLines.get(r))){
+				fail(prefix + " record " + (r+1) + ": expected to end on line " + expectedLines.get(r) + " got " + actualLines.get(r));
+			}
+		}
+		if (expected.size() != actual.size()){
+			fail(prefix + " record count: expected " + expected.size() + " got " + actual.size());
+		}
+	}
+
+	/**
+	 * @param lineNumber	line the record starts on.
+	 * @param record
+	 * @return line the record ends on.
+	 */
+	private static int endLine(final int lineNumber, final String[] record){
+		int line = lineNumber;
+		for(String value : record){
+			for(int i = value.indexOf('\n'); i >= 0; i = value.indexOf('\n', i + 1)){
+				line++;
+			}
+		}
+		return line;
+	}
+
+	private void fail(final String message){
+		failures++;
+		System.out.println("FAIL " + message);
+	}
+
+	/**
+	 * @return number of mismatches found.
+	 */
+	public int getFailures(){
+		return failures;
+	}
+
+	/**
+	 * Main method used for testing.
+	 *
+	 * @param args	csv files or directories of csv files.
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+
+		CSVReaderCompare compare = new CSVReaderCompare();
+		int files = 0;
+		for(String arg : args){
+			File path = new File(arg);
+			File[] list = (path.isDirectory() ? path.listFiles() : new File[]{ path });
+			Arrays.sort(list);
+			for(File file : list){
+				if (file.isFile()){
+					compare.compare(file);
+					files++;
+				}
+			}
+		}
+
+		stopwatch.stop();
+		System.out.println("files: " + files + " failures: " + compare.getFailures() + " time: " + stopwatch);
+		if (compare.getFailures() > 0){
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,174 @@
+/**
+ *
+ */
+package us.brianfeldman.fileformat.csv;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * CSVTokenizer finds separator, quote, CR and LF bytes eight at a time.
+ *
+ * Each 8 byte word is compared against every wanted byte at once using long-word bit tricks (SWAR):
+ * xor-ing the word with the wanted byte repeated 8 times turns matching bytes into zero bytes,
+ * and (x - 0x01..01) & ~x & 0x80..80 sets the high bit of the lowest zero byte.
+ * Bytes above a match may be flagged falsely, but the lowest flagged byte is always exact,
+ * which is the only one used. Words are read little endian so the lowest bit is the first byte.
+ *
+ * Buffers passed in must be in little endian order; see order().
+ *
+ * @author Brian G. Feldman (bgfeldm@yahoo.com)
+ *
+ */
+public final class CSVTokenizer {
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGHS = 0x8080808080808080L;
+
+	private static final byte LF = '\n';
+	private static final byte CR = '\r';
+
+	private static final long LF_PATTERN = pattern(LF);
+	private static final long CR_PATTERN = pattern(CR);
+
+	private final byte separator;
+	private final byte quote;
+	private final long separatorPattern;
+	private final long quotePattern;
+
+	/**
+	 * @param separator		field separator byte.
+	 * @param quote			quote byte.
+	 */
+	public CSVTokenizer(final byte separator, final byte quote){
+		this.separator = separator;
+		this.quote = quote;
+		this.separatorPattern = pattern(separator);
+		this.quotePattern = pattern(quote);
+	}
+
+	/**
+	 * Set a buffer to the byte order the tokenizer reads words in.
+	 *
+	 * @param buffer
+	 * @return buffer
+	 */
+	public static ByteBuffer order(final ByteBuffer buffer){
+		return buffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static long pattern(final byte b){
+		return ONES * (b & 0xFF);
+	}
+
+	private static long zeroBytes(final long x){
+		return (x - ONES) & ~x & HIGHS;
+	}
+
+	private static int firstByte(final long mask){
+		return Long.numberOfTrailingZeros(mask) >>> 3;
+	}
+
+	/**
+	 * Find the next separator, quote, CR or LF; the end of an unquoted part of a field.
+	 *
+	 * @param buf
+	 * @param from		first index searched.
+	 * @param limit		index just past the last searched.
+	 * @return index of the byte found, or limit when there is none.
+	 */
+	public int indexOfSpecial(final ByteBuffer buf, final int from, final int limit){
+		int i = from;
+		for(; i + 8 <= limit; i += 8){
+			long word = buf.getLong(i);
+			long mask = zeroBytes(word ^ separatorPattern) | zeroBytes(word ^ quotePattern) | zeroBytes(word ^ LF_PATTERN) | zeroBytes(word ^ CR_PATTERN);
+			if (mask != 0){
+				return i + firstByte(mask);
+			}
+		}
+		for(; i < limit; i++){
+			byte b = buf.get(i);
+			if (b == separator || b == quote || b == LF || b == CR){
+				return i;
+			}
+		}
+		return limit;
+	}
+
+	/**
+	 * Find the next separator only; used to split a line already known to hold no quotes.
+	 *
+	 * @param buf
+	 * @param from		first index searched.
+	 * @param limit		index just past the last searched.
+	 * @return index of the byte found, or limit when there is none.
+	 */
+	public int indexOfSeparator(final ByteBuffer buf, final int from, final int limit){
+		int i = from;
+		for(; i + 8 <= limit; i += 8){
+			long mask = zeroBytes(buf.getLong(i) ^ separatorPattern);
+			if (mask != 0){
+				return i + firstByte(mask);
+			}
+		}
+		for(; i < limit; i++){
+			if (buf.get(i) == separator){
+				return i;
+			}
+		}
+		return limit;
+	}
+
+	/**
+	 * Find the next quote, CR or LF; used within quoted fields and to find the end of a line without quotes.
+	 *
+	 * @param buf
+	 * @param from		first index searched.
+	 * @param limit		index just past the last searched.
+	 * @return index of the byte found, or limit when there is none.
+	 */
+	public int indexOfQuoteOrLineEnd(final ByteBuffer buf, final int from, final int limit){
+		int i = from;
+		for(; i + 8 <= limit; i += 8){
+			long word = buf.getLong(i);
+			long mask = zeroBytes(word ^ quotePattern) | zeroBytes(word ^ LF_PATTERN) | zeroBytes(word ^ CR_PATTERN);
+			if (mask != 0){
+				return i + firstByte(mask);
+			}
+		}
+		for(; i < limit; i++){
+			byte b = buf.get(i);
+			if (b == quote || b == LF || b == CR){
+				return i;
+			}
+		}
+		return limit;
+	}
+
+	/**
+	 * Find the next CR or LF.
+	 *
+	 * @param buf
+	 * @param from		first index searched.
+	 * @param limit		index just past the last searched.
+	 * @return index of the byte found, or limit when there is none.
+	 */
+	public int indexOfLineEnd(final ByteBuffer buf, final int from, final int limit){
+		int i = from;
+		for(; i + 8 <= limit; i += 8){
+			long word = buf.getLong(i);
+			long mask = zeroBytes(word ^ LF_PATTERN) | zeroBytes(word ^ CR_PATTERN);
+			if (mask != 0){
+				return i + firstByte(mask);
+			}
+		}
+		for(; i < limit; i++){
+			byte b = buf.get(i);
+			if (b == LF || b == CR){
+				return i;
+			}
+		}
+		return limit;
+	}
+
+}
@@ -0,0 +1,206 @@
+/**
+ *
+ */
+package us.brianfeldman.fileformat.csv;
+
+import java.util.Arrays;
+
+/**
+ * CharRecord is a reusable record holding all field values of a line in a single char buffer.
+ *
+ * Fields are exposed as CharSequence slices over the buffer, so reading a record into it
+ * does not allocate a String per field. The buffer and slices are kept from one record to the next;
+ * a CharRecord must only be used by one thread at a time.
+ *
+ * @author Brian G. Feldman (bgfeldm@yahoo.com)
+ *
+ */
+public class CharRecord {
+
+	private char[] chars = new char[256];
+	private int length = 0;
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private Slice[] slices = new Slice[0];
+	private int fieldCount = 0;
+	private int lineNumber = 0;
+
+	/**
+	 * Remove all fields, keeping the buffers for reuse.
+	 */
+	public void clear(){
+		length = 0;
+		fieldCount = 0;
+	}
+
+	/**
+	 * Replace the contents with the values of a record.
+	 *
+	 * @param record
+	 * @param lineNumber
+	 */
+	public void set(final String[] record, final int lineNumber){
+		clear();
+		this.lineNumber = lineNumber;
+		for(int i=0; i < record.length; i++){
+			addField(record[i] != null ? record[i] : "");
+		}
+	}
+
+	/**
+	 * Append a field value.
+	 *
+	 * @param value
+	 */
+	public void addField(final CharSequence value){
+		int n = value.length();
+		char[] buf = reserve(n);
+		if (value instanceof String){
+			((String) value).getChars(0, n, buf, length);
+		} else {
+			for(int i=0; i < n; i++){
+				buf[length + i] = value.charAt(i);
+			}
+		}
+		endField(length + n);
+	}
+
+	/**
+	 * Make room for a field of up to n chars, which are then written directly into the returned
+	 * buffer starting at length(), and completed with endField().
+	 *
+	 * @param n		maximum number of chars in the field.
+	 * @return char buffer.
+	 */
+	public char[] reserve(final int n){
+		if (length + n > chars.length){
+			chars = Arrays.copyOf(chars, Math.max(length + n, chars.length * 2));
+		}
+		return chars;
+	}
+
+	/**
+	 * Complete a field written into the buffer returned by reserve().
+	 *
+	 * @param end		buffer position just past the last char of the field.
+	 */
+	public void endField(final int end){
+		if (fieldCount == starts.length){
+			starts = Arrays.copyOf(starts, fieldCount * 2);
+			ends = Arrays.copyOf(ends, fieldCount * 2);
+		}
+		starts[fieldCount] = length;
+		ends[fieldCount] = end;
+		fieldCount++;
+		length = end;
+	}
+
+	/**
+	 * @return number of chars used in the buffer.
+	 */
+	public int length(){
+		return length;
+	}
+
+	/**
+	 * @return number of fields.
+	 */
+	public int getFieldCount(){
+		return fieldCount;
+	}
+
+	/**
+	 * @return line number of the record.
+	 */
+	public int getLineNumber(){
+		return lineNumber;
+	}
+
+	/**
+	 * @param lineNumber	line number of the record.
+	 */
+	public void setLineNumber(final int lineNumber){
+		this.lineNumber = lineNumber;
+	}
+
+	/**
+	 * Get a field value as a slice of the buffer.
+	 *
+	 * The slice is reused and only valid until the record is changed.
+	 *
+	 * @param index
+	 * @return field value.
+	 */
+	public CharSequence getField(final int index){
+		if (index >= fieldCount){
+			throw new IndexOutOfBoundsException("Field " + index + " of " + fieldCount);
+		}
+		if (index >= slices.length){
+			int size = Math.max(index + 1, slices.length * 2);
+			Slice[] grown = Arrays.copyOf(slices, size);
+			for(int i=slices.length; i < size; i++){
+				grown[i] = new Slice(i);
+			}
+			slices = grown;
+		}
+		return slices[index];
+	}
+
+	/**
+	 * Get a field value as a new String.
+	 *
+	 * @param index
+	 * @return field value.
+	 */
+	public String getString(final int index){
+		return new String(chars, starts[index], ends[index] - starts[index]);
+	}
+
+	/**
+	 * @return all field values as new Strings.
+	 */
+	public String[] toArray(){
+		String[] record = new String[fieldCount];
+		for(int i=0; i < fieldCount; i++){
+			record[i] = getString(i);
+		}
+		return record;
+	}
+
+	@Override
+	public String toString(){
+		return lineNumber + " " + Arrays.toString(toArray());
+	}
+
+	/**
+	 * Field value view over the shared buffer.
+	 */
+	private class Slice implements CharSequence {
+		private final int index;
+
+		Slice(final int index){
+			this.index = index;
+		}
+
+		@Override
+		public int length() {
+			return ends[index] - starts[index];
+		}
+
+		@Override
+		public char charAt(final int i) {
+			return chars[starts[index] + i];
+		}
+
+		@Override
+		public CharSequence subSequence(final int start, final int end) {
+			return new String(chars, starts[index] + start, end - start);
+		}
+
+		@Override
+		public String toString(){
+			return getString(index);
+		}
+	}
+
+}
@@ -5,13 +5,12 @@ package us.brianfeldman.fileformat.csv;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
@@ -37,6 +36,7 @@ public class JCSVReader implements RecordIterator {
 	private static final Logger LOG = LoggerFactory.getLogger(JCSVReader.class);
 
 	private File file;
+	private Charset charset = CSVInput.DEFAULT_CHARSET;
 	private Map<String, String> nextLine;
 	private CSVReader<String[]> csvReader;
 	private int currentLineNumber = 0;
@@ -96,11 +96,33 @@ public class JCSVReader implements RecordIterator {
 		throw new UnsupportedOperationException("CsvIterator does not support remove operation");
 	}
 
+	@Override
+	public RecordBatch nextBatch(final int max) {
+		return RecordBatch.read(this, max);
+	}
+
+	@Override
+	public void nextBatch(final RecordBatch batch) {
+		RecordBatch.fill(this, batch);
+	}
+
 	@Override
 	public String[] getHeader() {
 		return this.header;
 	}
 
+	@Override
+	public JCSVReader newReader(){
+		JCSVReader reader = new JCSVReader(separator, quote, comment);
+		reader.charset = this.charset;
+		return reader;
+	}
+
+	@Override
+	public void setCharset(final Charset charset){
+		this.charset = charset;
+	}
+
 	@Override
 	public String getFileName() {
 		return file.getAbsolutePath();
@@ -112,10 +134,10 @@ public class JCSVReader implements RecordIterator {
 	}
 
 	@Override
-	public void open(File file) throws FileNotFoundException  {
+	public void open(File file) throws IOException  {
 		this.file = file;
-		InputStream inputStream = new FileInputStream(file);
-		Reader reader = new BufferedReader(new InputStreamReader(inputStream), 32768);
+		InputStream inputStream = CSVInput.open(file);  // gzip files are decompressed in the background.
+		Reader reader = new BufferedReader(new InputStreamReader(inputStream, charset), 32768);
 		
 		csvReader = new CSVReaderBuilder<String[]>(reader).entryParser(new DefaultCSVEntryParser()).strategy(strategy).build();
 		csvIterator = csvReader.iterator();
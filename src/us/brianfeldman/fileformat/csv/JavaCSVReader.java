@@ -5,7 +5,6 @@ package us.brianfeldman.fileformat.csv;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -35,6 +34,7 @@ public class JavaCSVReader implements RecordIterator {
 	private static final Logger LOG = LoggerFactory.getLogger(JavaCSVReader.class);
 
 	private File file;
+	private Charset charset = CSVInput.DEFAULT_CHARSET;
 	private CsvReader csvReader;
 	private int currentLineNumber = 0;
 	private String[] header;
@@ -100,6 +100,28 @@ public class JavaCSVReader implements RecordIterator {
 		throw new UnsupportedOperationException("CsvIterator does not support remove operation");
 	}
 
+	@Override
+	public RecordBatch nextBatch(final int max) {
+		return RecordBatch.read(this, max);
+	}
+
+	@Override
+	public void nextBatch(final RecordBatch batch) {
+		RecordBatch.fill(this, batch);
+	}
+
+	@Override
+	public JavaCSVReader newReader(){
+		JavaCSVReader reader = new JavaCSVReader(separator, quote, comment);
+		reader.charset = this.charset;
+		return reader;
+	}
+
+	@Override
+	public void setCharset(final Charset charset){
+		this.charset = charset;
+	}
+
 	@Override
 	public String getFileName() {
 		return this.file.getAbsolutePath();
@@ -118,8 +140,8 @@ public class JavaCSVReader implements RecordIterator {
 	@Override
 	public void open(final File file) throws IOException {
 		this.file = file;
-		InputStream inputStream = new FileInputStream(file);
-		Reader reader = new BufferedReader(new InputStreamReader(inputStream), 32768);
+		InputStream inputStream = CSVInput.open(file);  // gzip files are decompressed in the background.
+		Reader reader = new BufferedReader(new InputStreamReader(inputStream, charset), 32768);
 		csvReader = new CsvReader(reader, this.separator);
 		//csvReader.setSafetySwitch(false);
 		csvReader.setTrimWhitespace(true);
@@ -0,0 +1,980 @@
+/**
+ *
+ */
+package us.brianfeldman.fileformat.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * MappedCSVReader is a native csv parser which memory maps the file and scans the bytes directly.
+ *
+ * The file is mapped through FileChannel.map in windows, since a single mapping is limited to 2 GB.
+ * Scanning a record only records where each field starts and ends within the window;
+ * field values are decoded into Strings when the record is asked for through next().
+ * Bytes are searched eight at a time by CSVTokenizer, and a line without any quote
+ * is split on separators alone. Only field contents are ever decoded: ASCII bytes are
+ * copied straight to chars, so the encoding must be ASCII compatible (UTF-8 by default).
+ *
+ * Gzip compressed files can not be mapped; they are decompressed in the background by
+ * ParallelGzipInputStream into a heap window which is scanned the same way.
+ * Files smaller than 256 KB are read into a heap window too, as many small mappings
+ * cost more than a single read and are held until garbage collected.
+ *
+ * Follows the same rules as the other readers: the first record is the header,
+ * empty lines and lines starting with the comment character are skipped,
+ * fields may be enclosed in quotes to contain separators or newlines, a doubled quote within
+ * a quoted field is a literal quote, and spaces surrounding an unquoted field are trimmed.
+ * As with SuperCSV, a quote within a field also starts a quoted part, and line breaks within
+ * quotes are returned as LF.
+ *
+ * @author Brian G. Feldman (bgfeldm@yahoo.com)
+ *
+ */
+public class MappedCSVReader implements RecordIterator {
+	private static final Logger LOG = LoggerFactory.getLogger(MappedCSVReader.class);
+
+	private static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;  // 64 MB mapped at a time.
+	private static final int STREAM_WINDOW_SIZE = 4 * 1024 * 1024;  // 4 MB buffered at a time from compressed files.
+	private static final long MIN_MAPPED_SIZE = 256 * 1024;  // smaller files are read onto the heap.
+	private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE - 8;
+
+	private static final byte LF = '\n';
+	private static final byte CR = '\r';
+	private static final byte SPACE = ' ';
+
+	private static final int RECORD = 0;
+	private static final int END_OF_INPUT = 1;
+	private static final int NEED_MORE = 2;
+
+	private final byte separator;
+	private final byte quote;
+	private final byte comment;
+	private final boolean skipComments;
+	private final CSVTokenizer tokenizer;
+	private Charset charset = CSVInput.DEFAULT_CHARSET;
+	private boolean utf8 = true;
+
+	private File file;
+	private RandomAccessFile randomAccessFile;
+	private FileChannel channel;
+	private InputStream stream;
+	private int defaultWindowSize = DEFAULT_WINDOW_SIZE;
+	private long minMappedSize = MIN_MAPPED_SIZE;
+	private int windowSize = DEFAULT_WINDOW_SIZE;
+	private ByteBuffer window;
+	private long windowStart;
+	private long endPosition;
+
+	private long position;			// absolute position of the next unscanned byte.
+	private int lineNumber = 1;		// physical line at position.
+
+	private boolean pending;		// a scanned record is waiting to be returned by next().
+	private long pendingPosition;
+	private int pendingLineNumber;
+	private int fieldCount;
+	private int[] fieldStart = new int[64];
+	private int[] fieldEnd = new int[64];
+	private boolean[] fieldEscaped = new boolean[64];
+
+	private int currentLineNumber = 0;
+	private String[] header;
+	private RecordOffsets.Builder offsetBuilder;
+	private boolean tailing = false;	// the file is still being written; its last line may be incomplete.
+
+	private byte[] scratch = new byte[1024];
+
+	/**
+	 * @param separator		field separator character.  usually ',' in North America, ';' in Europe and sometimes '\t' for tab.
+	 */
+	public MappedCSVReader(final char separator){
+		this(separator, '"');
+	}
+
+	/**
+	 * @param separator		field separator character.  usually ',' in North America, ';' in Europe and sometimes '\t' for tab.
+	 * @param quote			character use to enclose fields containing a separator. usually '"'
+	 */
+	public MappedCSVReader(final char separator, final char quote){
+		this.separator = toByte(separator);
+		this.quote = toByte(quote);
+		this.comment = 0;
+		this.skipComments = false;
+		this.tokenizer = new CSVTokenizer(this.separator, this.quote);
+	}
+
+	/**
+	 * @param separator		field separator character.  usually ',' in North America, ';' in Europe and sometimes '\t' for tab.
+	 * @param quote			character use to enclose fields containing a separator. usually '"'
+	 * @param comment		leading character used on comment lines. Comment lines are ignored.
+	 */
+	public MappedCSVReader(final char separator, final char quote, final char comment){
+		this.separator = toByte(separator);
+		this.quote = toByte(quote);
+		this.comment = toByte(comment);
+		this.skipComments = true;
+		this.tokenizer = new CSVTokenizer(this.separator, this.quote);
+	}
+
+	/**
+	 * Create an unopened reader with the same separator, quote, comment and encoding settings.
+	 *
+	 * @return reader
+	 */
+	@Override
+	public MappedCSVReader newReader(){
+		MappedCSVReader reader = (skipComments ? new MappedCSVReader((char) separator, (char) quote, (char) comment) : new MappedCSVReader((char) separator, (char) quote));
+		reader.setCharset(this.charset);
+		reader.defaultWindowSize = this.defaultWindowSize;
+		reader.minMappedSize = this.minMappedSize;
+		reader.tailing = this.tailing;
+		return reader;
+	}
+
+	/**
+	 * @return field separator byte.
+	 */
+	byte getSeparatorByte(){
+		return separator;
+	}
+
+	/**
+	 * @return quote byte.
+	 */
+	byte getQuoteByte(){
+		return quote;
+	}
+
+	/**
+	 * @return leading byte of comment lines, or -1 when comment lines are not skipped.
+	 */
+	int getCommentByte(){
+		return (skipComments ? comment : -1);
+	}
+
+	/**
+	 * Set the character encoding of files opened afterwards.
+	 *
+	 * Records are split on raw bytes, so only encodings in which ASCII characters are single
+	 * ASCII bytes are accepted; UTF-8, ISO-8859-x, windows-125x and the like.
+	 *
+	 * @param charset
+	 * @throws IllegalArgumentException when the encoding is not ASCII compatible, e.g. UTF-16.
+	 */
+	@Override
+	public void setCharset(final Charset charset){
+		if (!isAsciiCompatible(charset)){
+			throw new IllegalArgumentException("MappedCSVReader requires an ASCII compatible encoding: " + charset.name());
+		}
+		this.charset = charset;
+		this.utf8 = charset.equals(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param charset
+	 * @return whether ASCII characters are single ASCII bytes in the encoding, so the MappedCSVReader can read it.
+	 */
+	static boolean isAsciiCompatible(final Charset charset){
+		if (!charset.canEncode()){
+			return false;
+		}
+		byte[] ascii = new byte[128];
+		for(int i=0; i < ascii.length; i++){
+			ascii[i] = (byte) i;
+		}
+		return Arrays.equals(ascii, new String(ascii, StandardCharsets.US_ASCII).getBytes(charset));
+	}
+
+	/**
+	 * Set the size below which files are read onto the heap rather than mapped; 0 maps every file. Used for testing.
+	 *
+	 * @param minMappedSize		bytes
+	 */
+	void setMinMappedSize(final long minMappedSize){
+		this.minMappedSize = minMappedSize;
+	}
+
+	/**
+	 * Set the size of the mapped window; small windows force records across window ends, used for testing.
+	 *
+	 * @param windowSize	bytes mapped at a time.
+	 */
+	void setWindowSize(final int windowSize){
+		this.defaultWindowSize = windowSize;
+	}
+
+	/**
+	 * Collect the offsets of the data records read from now on, for a RecordOffsets sidecar.
+	 *
+	 * @param offsetBuilder		builder, or null to stop collecting.
+	 */
+	public void setOffsetBuilder(final RecordOffsets.Builder offsetBuilder){
+		this.offsetBuilder = offsetBuilder;
+	}
+
+	/**
+	 * Read a file that is still being appended to.
+	 *
+	 * The last record is then only returned once its line break has been written, so a line caught
+	 * half written is never taken for a whole record; getRecordPosition() stays at its start, where
+	 * reading can be opened again once the file has grown.
+	 *
+	 * @param tailing
+	 */
+	public void setTailing(final boolean tailing){
+		this.tailing = tailing;
+	}
+
+	private static byte toByte(final char c){
+		if (c > 127){
+			throw new IllegalArgumentException("MappedCSVReader only supports ASCII control characters, got: '" + c + "'");
+		}
+		return (byte) c;
+	}
+
+	@Override
+	public void open(final File file) throws IOException {
+		this.position = 0;
+		this.lineNumber = 1;
+		this.header = null;
+		if (CSVInput.isGzip(file)){
+			openStream(file, true, STREAM_WINDOW_SIZE);
+		} else if (file.length() < minMappedSize){
+			openStream(file, false, (int) file.length() + 1);  // room to see the end of the file in one read.
+		} else {
+			openChannel(file);
+			this.endPosition = channel.size();
+		}
+
+		fill(0);
+		skipByteOrderMark();
+		try {
+			readHeader();
+		} catch (RecordReadException e) {
+			throw new IOException(e.getMessage(), e.getCause());
+		}
+	}
+
+	/**
+	 * Open reading on a byte range of a File.
+	 *
+	 * The range must start on a record boundary, such as one returned by getRecordPosition()
+	 * or found by CSVPartitioner. Reading stops at the end of the range.
+	 *
+	 * @param file
+	 * @param start			absolute position of the first record in the range.
+	 * @param end			absolute position just past the last record in the range.
+	 * @param lineNumber	line number of the first record in the range.
+	 * @param header		header read from the start of the file.
+	 * @throws IOException
+	 */
+	public void open(final File file, final long start, final long end, final int lineNumber, final String[] header) throws IOException {
+		openChannel(file);
+		if (CSVInput.isGzip(channel)){
+			close();
+			throw new IOException("Byte ranges can not be read from a compressed file: " + file.getAbsolutePath());
+		}
+		this.endPosition = Math.min(end, channel.size());
+		this.position = start;
+		this.lineNumber = lineNumber;
+		this.header = header;
+
+		fill(start);
+		try {
+			advance();
+		} catch (RecordReadException e) {
+			throw new IOException(e.getMessage(), e.getCause());
+		}
+	}
+
+	private void openChannel(final File file) throws IOException {
+		this.file = file;
+		this.randomAccessFile = new RandomAccessFile(file, "r");
+		this.channel = randomAccessFile.getChannel();
+		this.stream = null;
+		this.windowSize = defaultWindowSize;
+		this.window = null;
+		this.windowStart = 0;
+		this.currentLineNumber = 0;
+	}
+
+	/**
+	 * Compressed files can not be mapped; they are decompressed in the background into a heap window instead.
+	 * Small files are read into a heap window as well, since a mapping is only released once garbage collected.
+	 */
+	private void openStream(final File file, final boolean gzip, final int streamWindowSize) throws IOException {
+		this.file = file;
+		this.randomAccessFile = null;
+		this.channel = null;
+		this.stream = CSVInput.open(file, gzip);
+		this.endPosition = Long.MAX_VALUE;  // known once the stream ends.
+		this.windowSize = Math.min(defaultWindowSize, streamWindowSize);
+		this.window = null;
+		this.windowStart = 0;
+		this.currentLineNumber = 0;
+	}
+
+	@Override
+	public void open(final String textBlob) {
+		this.file = null;
+		this.randomAccessFile = null;
+		this.channel = null;
+		this.stream = null;
+		this.window = CSVTokenizer.order( ByteBuffer.wrap(textBlob.getBytes(charset)) );
+		this.windowStart = 0;
+		this.endPosition = window.limit();
+		this.position = 0;
+		this.lineNumber = 1;
+		this.currentLineNumber = 0;
+		this.header = null;
+
+		readHeader();
+	}
+
+	/**
+	 * Skip a UTF-8 byte order mark at the start of a file, so it does not become part of the first column name.
+	 */
+	private void skipByteOrderMark(){
+		if (utf8 && window.limit() >= 3 && (window.get(0) & 0xFF) == 0xEF && (window.get(1) & 0xFF) == 0xBB && (window.get(2) & 0xFF) == 0xBF){
+			position = 3;
+		}
+	}
+
+	private void readHeader(){
+		advance();
+		if (pending){
+			currentLineNumber = pendingLineNumber;
+			header = materialize();
+			advance();
+		} else {
+			header = new String[0];
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return pending;
+	}
+
+	@Override
+	public String[] next() {
+		if (!pending){
+			throw new NoSuchElementException();
+		}
+		currentLineNumber = pendingLineNumber;
+		String[] record = materialize();
+		advance();
+		return record;
+	}
+
+	/**
+	 * Skip over the next record without decoding any of its field values.
+	 */
+	public void skip() {
+		if (!pending){
+			throw new NoSuchElementException();
+		}
+		currentLineNumber = pendingLineNumber;
+		advance();
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("CsvIterator does not support remove operation");
+	}
+
+	@Override
+	public RecordBatch nextBatch(final int max) {
+		return RecordBatch.read(this, max);
+	}
+
+	@Override
+	public void nextBatch(final RecordBatch batch) {
+		batch.reset(getFileName(), header);
+		while(!batch.isFull() && pending){
+			currentLineNumber = pendingLineNumber;
+			materialize(batch.add());
+			advance();
+		}
+	}
+
+	@Override
+	public String[] getHeader() {
+		return this.header;
+	}
+
+	@Override
+	public String getFileName() {
+		return (file != null ? file.getAbsolutePath() : null);
+	}
+
+	@Override
+	public int getLineNumber() {
+		return currentLineNumber;
+	}
+
+	/**
+	 * Get the byte position where the next record starts, or the end of input when there is no next record.
+	 *
+	 * @return absolute byte position
+	 */
+	public long getRecordPosition() {
+		return (pending ? pendingPosition : position);
+	}
+
+	/**
+	 * Get the line number where the next record starts.
+	 *
+	 * @return line number
+	 */
+	public int getRecordLineNumber() {
+		return (pending ? pendingLineNumber : lineNumber);
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		pending = false;
+		if (randomAccessFile != null){
+			randomAccessFile.close();
+			randomAccessFile = null;
+			channel = null;
+		}
+		if (stream != null){
+			stream.close();
+			stream = null;
+		}
+	}
+
+	/**
+	 * Map a window of the file starting at the given absolute position.
+	 *
+	 * @param start		absolute file position
+	 * @throws IOException
+	 */
+	private void map(final long start) throws IOException {
+		long size = Math.min(windowSize, endPosition - start);
+		window = CSVTokenizer.order( channel.map(FileChannel.MapMode.READ_ONLY, start, size) );
+		windowStart = start;
+	}
+
+	/**
+	 * Move the window to start at the given absolute position, from the mapped file or the stream.
+	 *
+	 * @param start		absolute position
+	 * @throws IOException
+	 */
+	private void fill(final long start) throws IOException {
+		if (channel != null){
+			map(start);
+		} else {
+			refill(start);
+		}
+	}
+
+	/**
+	 * Refill the heap window from the stream, keeping the bytes from the given position on.
+	 *
+	 * @param start		absolute position, within or just past the current window.
+	 * @throws IOException
+	 */
+	private void refill(final long start) throws IOException {
+		byte[] buffer = (window != null && window.array().length >= windowSize ? window.array() : new byte[windowSize]);
+		int keep = 0;
+		if (window != null){
+			keep = (int) (windowStart + window.limit() - start);
+			System.arraycopy(window.array(), (int) (start - windowStart), buffer, 0, keep);
+		}
+
+		int n = keep;
+		while(n < buffer.length){
+			int r = stream.read(buffer, n, buffer.length - n);
+			if (r < 0){
+				endPosition = start + n;
+				break;
+			}
+			n += r;
+		}
+		window = CSVTokenizer.order( ByteBuffer.wrap(buffer, 0, n) );
+		windowStart = start;
+	}
+
+	/**
+	 * Scan forward to the next record, remapping the window whenever a record runs off its end.
+	 *
+	 * @throws RecordReadException when the file can not be read, or a record is larger than the largest window.
+	 */
+	private void advance(){
+		pending = false;
+		try {
+			while(true){
+				int result = scanRecord();
+				if (result == RECORD){
+					pending = true;
+					if (offsetBuilder != null && header != null){  // data records only.
+						offsetBuilder.add(pendingPosition, pendingLineNumber);
+					}
+					return;
+				} else if (result == END_OF_INPUT){
+					return;
+				}
+
+				// record crosses the end of the window.
+				if (channel == null && stream == null){
+					return;
+				}
+				if (tailing && windowStart + window.limit() >= endPosition){
+					return;  // the rest is not written yet.
+				}
+				if (position == windowStart){
+					if (windowSize >= MAX_WINDOW_SIZE){
+						throw new IOException("Record at line " + lineNumber + " exceeds the maximum mapping size.");
+					}
+					windowSize = (int) Math.min((long) windowSize * 2, MAX_WINDOW_SIZE);
+				}
+				fill(position);
+			}
+		} catch (IOException e) {
+			throw new RecordReadException("Failed reading line, at " + getFileName() + ":" + lineNumber, e);
+		}
+	}
+
+	/**
+	 * Scan a single record starting at the current position, recording the field boundaries.
+	 *
+	 * Blank and comment lines before the record are consumed. Position and line number are only
+	 * moved past a line or record once it was completely found within the window.
+	 *
+	 * @return RECORD, END_OF_INPUT or NEED_MORE when the window ends before the record does.
+	 */
+	private int scanRecord(){
+		final ByteBuffer buf = this.window;
+		final int limit = buf.limit();
+		final boolean lastWindow = (!tailing && windowStart + limit >= endPosition);
+		int i = (int) (position - windowStart);
+
+		// skip empty lines and comment lines.
+		while(true){
+			if (i >= limit){
+				return (lastWindow ? END_OF_INPUT : NEED_MORE);
+			}
+			byte b = buf.get(i);
+			if (b == LF || b == CR || (skipComments && b == comment)){
+				int j = tokenizer.indexOfLineEnd(buf, i, limit);
+				if (j >= limit){
+					if (!lastWindow){
+						return NEED_MORE;
+					}
+					position = windowStart + limit;
+					return END_OF_INPUT;
+				}
+				if (buf.get(j) == CR){
+					if (j + 1 >= limit && !lastWindow){
+						return NEED_MORE;
+					}
+					if (j + 1 < limit && buf.get(j + 1) == LF){
+						j++;
+					}
+				}
+				i = j + 1;
+				position = windowStart + i;
+				lineNumber++;
+				continue;
+			}
+			break;
+		}
+
+		final int recordStart = i;
+		int count = 0;
+
+		// fast path: a line holding no quote at all is split on separators alone.
+		final int lineEnd = tokenizer.indexOfQuoteOrLineEnd(buf, i, limit);
+		if (lineEnd < limit && buf.get(lineEnd) != quote){
+			while(true){
+				if (count == fieldStart.length){
+					growFields();
+				}
+				while(i < lineEnd && buf.get(i) == SPACE){
+					i++;
+				}
+				int j = tokenizer.indexOfSeparator(buf, i, lineEnd);
+				int end = j;
+				while(end > i && buf.get(end - 1) == SPACE){
+					end--;
+				}
+				fieldStart[count] = i;
+				fieldEnd[count] = end;
+				fieldEscaped[count] = false;
+				count++;
+				if (j == lineEnd){
+					break;
+				}
+				i = j + 1;
+			}
+
+			i = lineEnd;
+			if (buf.get(i) == CR){
+				if (i + 1 >= limit && !lastWindow){
+					return NEED_MORE;
+				}
+				if (i + 1 < limit && buf.get(i + 1) == LF){
+					i++;
+				}
+			}
+			return scanned(count, recordStart, 1, i + 1);
+		}
+		if (lineEnd >= limit && !lastWindow){
+			return NEED_MORE;
+		}
+
+		// parse fields, some of which are quoted.
+		int lines = 0;
+		while(true){
+			if (count == fieldStart.length){
+				growFields();
+			}
+
+			// leading spaces are trimmed.
+			while(i < limit && buf.get(i) == SPACE){
+				i++;
+			}
+
+			final int start = i;
+			int quotedEnd = i;		// spaces up to the end of the last quoted part are kept.
+			boolean escaped = false;
+			byte b = 0;
+
+			// a field is a run of unquoted and quoted parts.
+			parts:
+			while(true){
+				i = tokenizer.indexOfSpecial(buf, i, limit);
+				if (i >= limit){
+					if (!lastWindow){
+						return NEED_MORE;
+					}
+					break;
+				}
+				if (buf.get(i) != quote){
+					break;
+				}
+
+				escaped = true;
+				i++;
+				while(true){
+					i = tokenizer.indexOfQuoteOrLineEnd(buf, i, limit);
+					if (i >= limit){
+						if (!lastWindow){
+							return NEED_MORE;
+						}
+						break parts;  // unterminated quote; take the rest of the input.
+					}
+					b = buf.get(i);
+					if (b == quote){
+						if (i + 1 < limit && buf.get(i + 1) == quote){
+							i += 2;
+							continue;
+						}
+						if (i + 1 >= limit && !lastWindow){
+							return NEED_MORE;
+						}
+						i++;
+						break;
+					}
+					if (b == LF || i + 1 >= limit || buf.get(i + 1) != LF){  // CR alone also ends a line.
+						lines++;
+					}
+					i++;
+				}
+				quotedEnd = i;
+			}
+
+			int end = i;
+			while(end > quotedEnd && buf.get(end - 1) == SPACE){
+				end--;
+			}
+
+			fieldStart[count] = start;
+			fieldEnd[count] = end;
+			fieldEscaped[count] = escaped;
+			count++;
+
+			if (i >= limit){
+				break;
+			}
+			b = buf.get(i);
+			if (b == separator){
+				i++;
+				continue;
+			}
+			// end of record.
+			if (b == CR){
+				if (i + 1 >= limit && !lastWindow){
+					return NEED_MORE;
+				}
+				if (i + 1 < limit && buf.get(i + 1) == LF){
+					i++;
+				}
+			}
+			i++;
+			lines++;
+			break;
+		}
+
+		return scanned(count, recordStart, lines, i);
+	}
+
+	/**
+	 * Make a scanned record pending and move past it.
+	 *
+	 * @param count			number of fields.
+	 * @param recordStart	window index of the start of the record.
+	 * @param lines			number of line breaks within and ending the record.
+	 * @param next			window index just past the record.
+	 * @return RECORD
+	 */
+	private int scanned(final int count, final int recordStart, final int lines, final int next){
+		this.fieldCount = count;
+		this.pendingPosition = windowStart + recordStart;
+		this.pendingLineNumber = lineNumber;
+		this.lineNumber += lines;
+		this.position = windowStart + next;
+		return RECORD;
+	}
+
+	private void growFields(){
+		int size = fieldStart.length * 2;
+		fieldStart = Arrays.copyOf(fieldStart, size);
+		fieldEnd = Arrays.copyOf(fieldEnd, size);
+		fieldEscaped = Arrays.copyOf(fieldEscaped, size);
+	}
+
+	/**
+	 * Decode the field values of the pending record.
+	 *
+	 * @return record
+	 */
+	private String[] materialize(){
+		String[] record = new String[fieldCount];
+		for(int f=0; f < fieldCount; f++){
+			record[f] = decodeField(f);
+		}
+		return record;
+	}
+
+	/**
+	 * Decode the field values of the pending record into a reusable record, without creating Strings.
+	 *
+	 * Bytes are copied straight to chars while they are ASCII. A field holding other bytes is decoded
+	 * from UTF-8 in place, or through the charset when the input is in another encoding or is not valid UTF-8.
+	 *
+	 * @param record
+	 */
+	private void materialize(final CharRecord record){
+		record.setLineNumber(pendingLineNumber);
+		for(int f=0; f < fieldCount; f++){
+			int n;
+			char[] chars;
+			int length;
+			if (fieldEscaped[f]){
+				length = unescape(f);
+				chars = record.reserve(length);
+				n = record.length();
+				for(int i=0; i < length; i++){
+					byte b = scratch[i];
+					if (b < 0){
+						n = -1;  // not ASCII.
+						break;
+					}
+					chars[n++] = (char) b;
+				}
+			} else {
+				final int start = fieldStart[f];
+				final int end = fieldEnd[f];
+				length = end - start;
+				chars = record.reserve(length);
+				n = record.length();
+				for(int i=start; i < end; i++){
+					byte b = window.get(i);
+					if (b < 0){
+						n = -1;
+						break;
+					}
+					chars[n++] = (char) b;
+				}
+				if (n < 0 && utf8){
+					copyToScratch(start, end);
+				}
+			}
+
+			if (n < 0 && utf8){
+				n = decodeUtf8(scratch, length, chars, record.length());
+			}
+
+			if (n < 0){
+				record.addField(decodeField(f));
+			} else {
+				record.endField(n);
+			}
+		}
+	}
+
+	/**
+	 * Decode UTF-8 bytes into chars; each byte yields at most one char.
+	 *
+	 * @param bytes
+	 * @param length	number of bytes to decode.
+	 * @param chars		destination, with room for length chars past offset.
+	 * @param offset	first char written.
+	 * @return index just past the last char written, or -1 when the bytes are not valid UTF-8.
+	 */
+	static int decodeUtf8(final byte[] bytes, final int length, final char[] chars, final int offset){
+		int n = offset;
+		for(int i=0; i < length; ){
+			int b = bytes[i];
+			if (b >= 0){
+				chars[n++] = (char) b;
+				i++;
+			} else if ((b & 0xE0) == 0xC0){
+				if (i + 1 >= length || !isContinuation(bytes[i+1])){
+					return -1;
+				}
+				int c = ((b & 0x1F) << 6) | (bytes[i+1] & 0x3F);
+				if (c < 0x80){
+					return -1;  // overlong.
+				}
+				chars[n++] = (char) c;
+				i += 2;
+			} else if ((b & 0xF0) == 0xE0){
+				if (i + 2 >= length || !isContinuation(bytes[i+1]) || !isContinuation(bytes[i+2])){
+					return -1;
+				}
+				int c = ((b & 0x0F) << 12) | ((bytes[i+1] & 0x3F) << 6) | (bytes[i+2] & 0x3F);
+				if (c < 0x800 || Character.isSurrogate((char) c)){
+					return -1;
+				}
+				chars[n++] = (char) c;
+				i += 3;
+			} else if ((b & 0xF8) == 0xF0){
+				if (i + 3 >= length || !isContinuation(bytes[i+1]) || !isContinuation(bytes[i+2]) || !isContinuation(bytes[i+3])){
+					return -1;
+				}
+				int c = ((b & 0x07) << 18) | ((bytes[i+1] & 0x3F) << 12) | ((bytes[i+2] & 0x3F) << 6) | (bytes[i+3] & 0x3F);
+				if (c < 0x10000 || c > Character.MAX_CODE_POINT){
+					return -1;
+				}
+				chars[n++] = Character.highSurrogate(c);
+				chars[n++] = Character.lowSurrogate(c);
+				i += 4;
+			} else {
+				return -1;
+			}
+		}
+		return n;
+	}
+
+	private static boolean isContinuation(final byte b){
+		return (b & 0xC0) == 0x80;
+	}
+
+	private String decodeField(final int f){
+		if (fieldEscaped[f]){
+			int length = unescape(f);  // may grow scratch, so before scratch is read.
+			return new String(scratch, 0, length, charset);
+		}
+
+		final int start = fieldStart[f];
+		final int end = fieldEnd[f];
+		final int length = end - start;
+		if (length == 0){
+			return "";
+		}
+		copyToScratch(start, end);
+		return new String(scratch, 0, length, charset);
+	}
+
+	private void copyToScratch(final int start, final int end){
+		ensureScratch(end - start);
+		for(int i=start; i < end; i++){
+			scratch[i - start] = window.get(i);
+		}
+	}
+
+	/**
+	 * Copy a field holding quoted parts into the scratch buffer, removing the enclosing quotes,
+	 * turning doubled quotes into one and line breaks within quotes into LF.
+	 *
+	 * @param f		field index
+	 * @return number of bytes in scratch.
+	 */
+	private int unescape(final int f){
+		final int start = fieldStart[f];
+		final int end = fieldEnd[f];
+		ensureScratch(end - start);
+
+		int n = 0;
+		boolean inQuotes = false;
+		for(int i=start; i < end; i++){
+			byte b = window.get(i);
+			if (b == quote){
+				if (inQuotes && i + 1 < end && window.get(i + 1) == quote){
+					scratch[n++] = b;
+					i++;
+				} else {
+					inQuotes = !inQuotes;
+				}
+			} else if (b == CR && inQuotes){
+				scratch[n++] = LF;
+				if (i + 1 < end && window.get(i + 1) == LF){
+					i++;
+				}
+			} else {
+				scratch[n++] = b;
+			}
+		}
+		return n;
+	}
+
+	private void ensureScratch(final int length){
+		if (scratch.length < length){
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+		}
+	}
+
+	/**
+	 * Main method used for testing.
+	 *
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		String filename = args[0];
+
+		Stopwatch stopwatch = Stopwatch.createStarted();
+
+		MappedCSVReader reader = new MappedCSVReader(',', '"', '#');
+		reader.open(new File(filename));
+
+		for(int c=1; c < 10 && reader.hasNext(); c++){
+		//for(int c=1; reader.hasNext(); c++){
+			System.out.println(c+" " + Arrays.toString( reader.next() ));
+		}
+		reader.close();
+
+		stopwatch.stop();
+		System.out.println("time: "+stopwatch);
+	}
+
+}
@@ -5,11 +5,11 @@ package us.brianfeldman.fileformat.csv;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringReader;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 
 import org.slf4j.Logger;
@@ -32,6 +32,7 @@ public class OpenCSVReader implements RecordIterator {
 	private static final Logger LOG = LoggerFactory.getLogger(OpenCSVReader.class);
 
 	private File file;
+	private Charset charset = CSVInput.DEFAULT_CHARSET;
 	private String[] nextLine;
 	private char separator = ',';
 	private char quote = '"';
@@ -80,11 +81,33 @@ public class OpenCSVReader implements RecordIterator {
 		throw new UnsupportedOperationException("CsvIterator does not support remove operation");
 	}
 
+	@Override
+	public RecordBatch nextBatch(final int max) {
+		return RecordBatch.read(this, max);
+	}
+
+	@Override
+	public void nextBatch(final RecordBatch batch) {
+		RecordBatch.fill(this, batch);
+	}
+
 	@Override
 	public String[] getHeader() {
 		return this.header;
 	}
 
+	@Override
+	public OpenCSVReader newReader(){
+		OpenCSVReader reader = new OpenCSVReader(separator, quote);
+		reader.charset = this.charset;
+		return reader;
+	}
+
+	@Override
+	public void setCharset(final Charset charset){
+		this.charset = charset;
+	}
+
 	@Override
 	public String getFileName() {
 		return file.getAbsolutePath();
@@ -98,8 +121,8 @@ public class OpenCSVReader implements RecordIterator {
 	@Override
 	public void open(File file) throws IOException {
 		this.file = file;
-		InputStream inputStream = new FileInputStream(file);
-		this.csvReader = new CSVReader(new BufferedReader(new InputStreamReader(inputStream), 32768), this.separator, this.quote);
+		InputStream inputStream = CSVInput.open(file);  // gzip files are decompressed in the background.
+		this.csvReader = new CSVReader(new BufferedReader(new InputStreamReader(inputStream, charset), 32768), this.separator, this.quote);
 		this.header = csvReader.readNext();
 		this.nextLine = csvReader.readNext();
 	}
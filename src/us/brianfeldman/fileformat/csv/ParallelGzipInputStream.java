@@ -0,0 +1,345 @@
+/**
+ *
+ */
+package us.brianfeldman.fileformat.csv;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * ParallelGzipInputStream decompresses a gzip file on background threads, ahead of the reader.
+ *
+ * Decompressed chunks are handed over through a bounded queue, so decompression overlaps with
+ * parsing and indexing while only a few chunks are held in memory.
+ *
+ * Files written by bgzip (BGZF) are a series of small gzip members, each recording its own
+ * compressed size in the header; their members are inflated in parallel and handed over in order.
+ * Any other gzip file, including other multi-member files, is inflated on a single background thread,
+ * since member boundaries can not be found without inflating.
+ *
+ * @author Brian G. Feldman (bgfeldm@yahoo.com)
+ *
+ */
+public class ParallelGzipInputStream extends InputStream {
+	private static final Logger LOG = LoggerFactory.getLogger(ParallelGzipInputStream.class);
+
+	private static final int CHUNK_SIZE = 256 * 1024;
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+	private static final int QUEUE_SIZE = Math.max(16, THREADS * 4);
+
+	private static final byte[] END = new byte[0];
+
+	private static final int FEXTRA = 4;
+	private static final int HEADER_SIZE = 12;  // fixed header up to and including XLEN.
+	private static final int TRAILER_SIZE = 8;  // CRC32 and ISIZE.
+
+	private static ExecutorService inflaters;
+
+	private final File file;
+	private final BlockingQueue<Future<byte[]>> chunks = new ArrayBlockingQueue<Future<byte[]>>(QUEUE_SIZE);
+	private final Thread producer;
+
+	private byte[] chunk = new byte[0];
+	private int chunkPosition = 0;
+	private boolean finished = false;
+
+	/**
+	 * Start decompressing a gzip file in the background.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public ParallelGzipInputStream(final File file) throws IOException {
+		this.file = file;
+		final boolean blocked = isBgzf(file);
+		LOG.debug("Decompressing {} {}", file.getAbsolutePath(), (blocked ? "in parallel BGZF blocks" : "on a background thread"));
+
+		producer = new Thread("gunzip-" + file.getName()){
+			@Override
+			public void run(){
+				try {
+					if (blocked){
+						produceBlocks();
+					} else {
+						produceStream();
+					}
+					chunks.put(Futures.immediateFuture(END));
+				} catch (InterruptedException e) {
+					// closed before the end was reached.
+				} catch (IOException e) {
+					try {
+						chunks.put(Futures.<byte[]>immediateFailedFuture(e));
+					} catch (InterruptedException e1) {
+						// closed.
+					}
+				}
+			}
+		};
+		producer.setDaemon(true);
+		producer.start();
+	}
+
+	/**
+	 * Check whether a gzip file is in the blocked BGZF layout written by bgzip.
+	 *
+	 * @param file
+	 * @return true when the first member carries the BGZF block size.
+	 * @throws IOException
+	 */
+	public static boolean isBgzf(final File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			byte[] header = new byte[HEADER_SIZE];
+			in.readFully(header);
+			return (blockExtraSize(in, header) >= 0);
+		} catch (EOFException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read the extra field following a member header and find the BGZF block size.
+	 *
+	 * @param in		positioned after the fixed header.
+	 * @param header	fixed header of the member.
+	 * @return BSIZE, the total block size minus one, or -1 when this is not a BGZF member.
+	 * @throws IOException when a subfield runs past the end of the extra field.
+	 */
+	private static int blockExtraSize(final DataInputStream in, final byte[] header) throws IOException {
+		if ((header[0] & 0xFF) != 0x1f || (header[1] & 0xFF) != 0x8b || (header[3] & FEXTRA) == 0){
+			return -1;
+		}
+		int xlen = (header[10] & 0xFF) | ((header[11] & 0xFF) << 8);
+		byte[] extra = new byte[xlen];
+		in.readFully(extra);
+		for(int i=0; i + 4 <= xlen; ){
+			int slen = (extra[i+2] & 0xFF) | ((extra[i+3] & 0xFF) << 8);
+			if (i + 4 + slen > xlen){
+				throw new IOException("Malformed gzip extra field; subfield of " + slen + " bytes at " + i + " runs past its length " + xlen);
+			}
+			if (extra[i] == 'B' && extra[i+1] == 'C' && slen == 2){
+				return (extra[i+4] & 0xFF) | ((extra[i+5] & 0xFF) << 8);
+			}
+			i += 4 + slen;
+		}
+		return -1;
+	}
+
+	private static synchronized ExecutorService getInflaters(){
+		if (inflaters == null){
+			inflaters = Executors.newFixedThreadPool(THREADS, new ThreadFactory(){
+				private int count = 0;
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "inflater-" + (count++));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return inflaters;
+	}
+
+	/**
+	 * Read BGZF blocks one after the other and queue each for inflating on the shared pool.
+	 */
+	private void produceBlocks() throws IOException, InterruptedException {
+		ExecutorService pool = getInflaters();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			while(true){
+				int first = in.read();
+				if (first < 0){
+					return;
+				}
+				final byte[] header = new byte[HEADER_SIZE];
+				header[0] = (byte) first;
+				in.readFully(header, 1, HEADER_SIZE - 1);
+
+				int bsize = blockExtraSize(in, header);
+				if (bsize < 0){
+					throw new IOException("Gzip member is not a BGZF block: " + file.getAbsolutePath());
+				}
+				final int xlen = (header[10] & 0xFF) | ((header[11] & 0xFF) << 8);
+				final byte[] block = new byte[bsize + 1 - HEADER_SIZE - xlen];  // compressed data and trailer.
+				in.readFully(block);
+
+				Future<byte[]> inflated = pool.submit(new Callable<byte[]>(){
+					@Override
+					public byte[] call() throws IOException {
+						return inflateBlock(block);
+					}
+				});
+				try {
+					chunks.put(inflated);
+				} catch (InterruptedException e) {
+					inflated.cancel(true);  // closed; never read.
+					throw e;
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Inflate the compressed data of one BGZF block and check it against the block's CRC32.
+	 *
+	 * @param block		compressed data followed by the 8 byte trailer.
+	 * @return decompressed bytes.
+	 * @throws IOException
+	 */
+	private byte[] inflateBlock(final byte[] block) throws IOException {
+		int t = block.length - TRAILER_SIZE;
+		long crc = (block[t] & 0xFFL) | ((block[t+1] & 0xFFL) << 8) | ((block[t+2] & 0xFFL) << 16) | ((block[t+3] & 0xFFL) << 24);
+		int isize = (block[t+4] & 0xFF) | ((block[t+5] & 0xFF) << 8) | ((block[t+6] & 0xFF) << 16) | ((block[t+7] & 0xFF) << 24);
+
+		byte[] out = new byte[isize];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(block, 0, t);
+			int n = 0;
+			while(n < isize && !inflater.finished()){
+				int r = inflater.inflate(out, n, isize - n);
+				if (r == 0 && (inflater.needsInput() || inflater.needsDictionary())){
+					break;
+				}
+				n += r;
+			}
+			if (n != isize){
+				throw new IOException("Truncated BGZF block in " + file.getAbsolutePath());
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt BGZF block in " + file.getAbsolutePath(), e);
+		} finally {
+			inflater.end();
+		}
+
+		CRC32 check = new CRC32();
+		check.update(out, 0, isize);
+		if (check.getValue() != crc){
+			throw new IOException("CRC mismatch in BGZF block of " + file.getAbsolutePath());
+		}
+		return out;
+	}
+
+	/**
+	 * Inflate the whole file on this thread, queuing fixed size chunks.
+	 */
+	private void produceStream() throws IOException, InterruptedException {
+		InputStream in = new GZIPInputStream(new FileInputStream(file), 1 << 16);
+		try {
+			while(true){
+				byte[] buffer = new byte[CHUNK_SIZE];
+				int n = 0;
+				int r;
+				while(n < CHUNK_SIZE && (r = in.read(buffer, n, CHUNK_SIZE - n)) >= 0){
+					n += r;
+				}
+				if (n > 0){
+					chunks.put(Futures.immediateFuture(n == CHUNK_SIZE ? buffer : Arrays.copyOf(buffer, n)));
+				}
+				if (n < CHUNK_SIZE){
+					return;
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Move on to the next decompressed chunk.
+	 *
+	 * @return false at the end of the file.
+	 */
+	private boolean nextChunk() throws IOException {
+		while(!finished && chunkPosition >= chunk.length){
+			try {
+				byte[] next = chunks.take().get();
+				if (next == END){
+					finished = true;
+				} else {
+					chunk = next;
+					chunkPosition = 0;
+				}
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while decompressing " + file.getAbsolutePath(), e);
+			} catch (ExecutionException e) {
+				finished = true;
+				Throwable cause = e.getCause();
+				throw (cause instanceof IOException ? (IOException) cause : new IOException(cause));
+			}
+		}
+		return (chunkPosition < chunk.length);
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!nextChunk()){
+			return -1;
+		}
+		return chunk[chunkPosition++] & 0xFF;
+	}
+
+	@Override
+	public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+		if (length == 0){
+			return 0;
+		}
+		if (!nextChunk()){
+			return -1;
+		}
+		int n = Math.min(length, chunk.length - chunkPosition);
+		System.arraycopy(chunk, chunkPosition, buffer, offset, n);
+		chunkPosition += n;
+		return n;
+	}
+
+	@Override
+	public int available(){
+		return chunk.length - chunkPosition;
+	}
+
+	/**
+	 * Stop decompressing, cancelling the blocks queued but not read yet.
+	 */
+	@Override
+	public void close() throws IOException {
+		finished = true;
+		producer.interrupt();
+		List<Future<byte[]>> pending = new ArrayList<Future<byte[]>>();
+		chunks.drainTo(pending);
+		for(Future<byte[]> future : pending){
+			future.cancel(true);
+		}
+	}
+
+}
@@ -0,0 +1,191 @@
+/**
+ *
+ */
+package us.brianfeldman.fileformat.csv;
+
+/**
+ * RecordBatch holds a block of consecutive records read from one file,
+ * along with the line number of each record.
+ *
+ * Handing records over a block at a time keeps the per-record overhead
+ * of queuing and task creation out of the indexing loop.
+ *
+ * A batch is reusable: records are kept as CharRecord slots which are
+ * refilled by RecordIterator.nextBatch(RecordBatch), so a batch passed
+ * back and forth between a reader and the indexing threads stops allocating
+ * once its buffers have grown to the size of the records.
+ *
+ * A batch may also be limited in bytes, so a batch of wide records is
+ * handed over before its buffers grow to hold hundreds of them.
+ *
+ * @author Brian G. Feldman (bgfeldm@yahoo.com)
+ *
+ */
+public class RecordBatch {
+
+	private String fileName;
+	private String[] header;
+	private final CharRecord[] records;
+	private int size = 0;
+	private long maxBytes = 0;
+	private long chars = 0;  // chars of the records before the last one added, which may still be filling.
+
+	/**
+	 * @param capacity		maximum number of records in the batch.
+	 */
+	public RecordBatch(final int capacity){
+		this.records = new CharRecord[capacity];
+	}
+
+	/**
+	 * @param fileName		file the records were read from.
+	 * @param header		header of the file.
+	 * @param capacity		maximum number of records in the batch.
+	 */
+	public RecordBatch(final String fileName, final String[] header, final int capacity){
+		this(capacity);
+		reset(fileName, header);
+	}
+
+	/**
+	 * Read up to max records from a reader into a new batch.
+	 *
+	 * @param reader
+	 * @param max		maximum number of records to read.
+	 * @return batch, empty when the reader has no more records.
+	 */
+	public static RecordBatch read(final RecordIterator reader, final int max){
+		RecordBatch batch = new RecordBatch(max);
+		fill(reader, batch);
+		return batch;
+	}
+
+	/**
+	 * Refill a batch with the next records of a reader, up to the capacity of the batch.
+	 *
+	 * @param reader
+	 * @param batch
+	 */
+	public static void fill(final RecordIterator reader, final RecordBatch batch){
+		batch.reset(reader.getFileName(), reader.getHeader());
+		while(!batch.isFull() && reader.hasNext()){
+			String[] record = reader.next();
+			batch.add(record, reader.getLineNumber());
+		}
+	}
+
+	/**
+	 * Empty the batch for reuse.
+	 *
+	 * @param fileName		file the next records are read from.
+	 * @param header		header of the file.
+	 */
+	public void reset(final String fileName, final String[] header){
+		this.fileName = fileName;
+		this.header = header;
+		this.size = 0;
+		this.chars = 0;
+	}
+
+	/**
+	 * @param maxBytes		bytes of record characters at which the batch is full, before its capacity; 0 for no limit.
+	 */
+	public void setMaxBytes(final long maxBytes){
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Add a record to the batch.
+	 *
+	 * @param record
+	 * @param lineNumber
+	 */
+	public void add(final String[] record, final int lineNumber){
+		add().set(record, lineNumber);
+	}
+
+	/**
+	 * Add an empty record slot to the batch, to be filled in by the caller.
+	 *
+	 * @return cleared record.
+	 */
+	public CharRecord add(){
+		if (size > 0){
+			chars += records[size - 1].length();
+		}
+		CharRecord record = records[size];
+		if (record == null){
+			record = new CharRecord();
+			records[size] = record;
+		}
+		record.clear();
+		size++;
+		return record;
+	}
+
+	/**
+	 * @return file name the records were read from.
+	 */
+	public String getFileName(){
+		return fileName;
+	}
+
+	/**
+	 * @return header of the file.
+	 */
+	public String[] getHeader(){
+		return header;
+	}
+
+	/**
+	 * @param index
+	 * @return record at index.
+	 */
+	public CharRecord getRecord(final int index){
+		return records[index];
+	}
+
+	/**
+	 * @param index
+	 * @return line number of the record at index.
+	 */
+	public int getLineNumber(final int index){
+		return records[index].getLineNumber();
+	}
+
+	/**
+	 * @return number of records in the batch.
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @return approximate heap bytes of the characters of the records in the batch.
+	 */
+	public long bytes(){
+		return 2 * (size > 0 ? chars + records[size - 1].length() : 0);
+	}
+
+	/**
+	 * @return maximum number of records in the batch.
+	 */
+	public int capacity(){
+		return records.length;
+	}
+
+	/**
+	 * @return true when no records are in the batch.
+	 */
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	/**
+	 * @return true when the batch is at capacity, or holds its most bytes.
+	 */
+	public boolean isFull(){
+		return size == records.length || (maxBytes > 0 && bytes() >= maxBytes);
+	}
+
+}
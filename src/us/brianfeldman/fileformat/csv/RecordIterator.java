@@ -5,6 +5,7 @@ package us.brianfeldman.fileformat.csv;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.Iterator;
 
 /**
@@ -36,6 +37,35 @@ public interface RecordIterator extends Iterator<String[]> {
 	 */
 	public String[] getHeader();
 
+	/**
+	 * Get the next block of records.
+	 * 
+	 * @param max	maximum number of records returned.
+	 * @return batch of records, empty when there are no more records.
+	 */
+	public RecordBatch nextBatch(int max);
+
+	/**
+	 * Refill a reusable batch with the next block of records, up to the capacity of the batch.
+	 * 
+	 * @param batch		batch to refill, left empty when there are no more records.
+	 */
+	public void nextBatch(RecordBatch batch);
+
+	/**
+	 * Set the character encoding of files opened afterwards; UTF-8 unless set.
+	 * 
+	 * @param charset
+	 */
+	public void setCharset(Charset charset);
+
+	/**
+	 * Create an unopened reader with the same settings, so several files can be read at once.
+	 * 
+	 * @return reader
+	 */
+	public RecordIterator newReader();
+
 	/**
 	 * Open reading on a File.
 	 * 
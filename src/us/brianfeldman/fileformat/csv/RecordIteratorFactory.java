@@ -0,0 +1,26 @@
+/**
+ *
+ */
+package us.brianfeldman.fileformat.csv;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Creates the reader for each file, so the parser and its settings can differ from file to file.
+ *
+ * @author Brian G. Feldman <bgfeldm@yahoo.com>
+ *
+ */
+public interface RecordIteratorFactory {
+
+	/**
+	 * Create an unopened reader for a file.
+	 *
+	 * @param file		file the reader will be opened on.
+	 * @return reader
+	 * @throws IOException
+	 */
+	public RecordIterator newReader(File file) throws IOException;
+
+}
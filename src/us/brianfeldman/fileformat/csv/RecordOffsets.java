@@ -0,0 +1,386 @@
+/**
+ *
+ */
+package us.brianfeldman.fileformat.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * RecordOffsets is a sidecar of a csv file holding the byte offset and line number of every Nth record.
+ *
+ * With it a record can be found again from its line number by mapping the sidecar and reading
+ * from the nearest earlier offset, indexing can restart part way through a file, and CSVPartitioner
+ * can cut a file on record boundaries without scanning it first.
+ *
+ * The sidecar is a small header followed by two long arrays, offsets then line numbers, both ascending:
+ *
+ *   long   MAGIC
+ *   long   size of the csv file
+ *   long   last modified time of the csv file
+ *   long   interval
+ *   long   count
+ *   long[] offsets
+ *   long[] line numbers
+ *
+ * The csv file's size and last modified time tell whether a sidecar still belongs to it.
+ * Offsets are of data records only; the header is never one of them.
+ *
+ * @author Brian G. Feldman (bgfeldm@yahoo.com)
+ *
+ */
+public class RecordOffsets {
+	private static final Logger LOG = LoggerFactory.getLogger(RecordOffsets.class);
+
+	/** Name of the directory of sidecars within an index directory. */
+	public static final String DIRECTORY_NAME = "offsets";
+
+	private static final long MAGIC = 0x4353564f46460001L;  // "CSVOFF" version 1
+	private static final int HEADER_LONGS = 5;
+
+	private final long fileSize;
+	private final long lastModified;
+	private final int interval;
+	private final int count;
+	private final LongBuffer offsets;
+	private final LongBuffer lines;
+
+	private RecordOffsets(final long fileSize, final long lastModified, final int interval, final int count, final LongBuffer offsets, final LongBuffer lines){
+		this.fileSize = fileSize;
+		this.lastModified = lastModified;
+		this.interval = interval;
+		this.count = count;
+		this.offsets = offsets;
+		this.lines = lines;
+	}
+
+	/**
+	 * Get the sidecar file of a csv file within a directory of sidecars.
+	 *
+	 * The name holds the csv file name plus a hash of its absolute path, so files of the
+	 * same name in different directories do not collide.
+	 *
+	 * @param directory
+	 * @param file		csv file
+	 * @return sidecar file
+	 */
+	public static File sidecarFile(final File directory, final File file){
+		String path = file.getAbsolutePath();
+		return new File(directory, file.getName() + "-" + String.format("%08x", path.hashCode()) + ".off");
+	}
+
+	/**
+	 * Map a sidecar file.
+	 *
+	 * @param sidecar
+	 * @return offsets
+	 * @throws IOException when the file is not a sidecar.
+	 */
+	public static RecordOffsets open(final File sidecar) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(sidecar, "r");
+		try {
+			FileChannel channel = randomAccessFile.getChannel();
+			LongBuffer longs = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asLongBuffer();
+			if (longs.limit() < HEADER_LONGS || longs.get(0) != MAGIC){
+				throw new IOException("Not a record offset sidecar: " + sidecar.getAbsolutePath());
+			}
+			int count = (int) longs.get(4);
+			if (longs.limit() < HEADER_LONGS + 2L * count){
+				throw new IOException("Truncated record offset sidecar: " + sidecar.getAbsolutePath());
+			}
+			LongBuffer offsets = slice(longs, HEADER_LONGS, count);
+			LongBuffer lines = slice(longs, HEADER_LONGS + count, count);
+			return new RecordOffsets(longs.get(1), longs.get(2), (int) longs.get(3), count, offsets, lines);
+		} finally {
+			randomAccessFile.close();  // the mapping stays valid.
+		}
+	}
+
+	/**
+	 * Map the sidecar of a csv file, when there is one and it is still current.
+	 *
+	 * @param directory		directory of sidecars.
+	 * @param file			csv file
+	 * @return offsets, or null.
+	 */
+	public static RecordOffsets openCurrent(final File directory, final File file){
+		File sidecar = sidecarFile(directory, file);
+		if (!sidecar.exists()){
+			return null;
+		}
+		try {
+			RecordOffsets offsets = open(sidecar);
+			if (offsets.isCurrent(file)){
+				return offsets;
+			}
+			LOG.debug("Record offsets out of date for {}", file.getAbsolutePath());
+		} catch (IOException e) {
+			LOG.warn("Ignoring record offsets {}", sidecar.getAbsolutePath(), e);
+		}
+		return null;
+	}
+
+	private static LongBuffer slice(final LongBuffer longs, final int from, final int length){
+		LongBuffer copy = longs.duplicate();
+		copy.position(from);
+		copy.limit(from + length);
+		return copy.slice();
+	}
+
+	/**
+	 * @param file		csv file
+	 * @return whether the file has not changed since the offsets were taken.
+	 */
+	public boolean isCurrent(final File file){
+		return file.length() == fileSize && file.lastModified() == lastModified;
+	}
+
+	/**
+	 * @return records between offsets kept.
+	 */
+	public int getInterval(){
+		return interval;
+	}
+
+	/**
+	 * @return number of offsets kept.
+	 */
+	public int size(){
+		return count;
+	}
+
+	/**
+	 * @param i
+	 * @return byte position of the i-th kept record.
+	 */
+	public long getOffset(final int i){
+		return offsets.get(i);
+	}
+
+	/**
+	 * @param i
+	 * @return line number of the i-th kept record.
+	 */
+	public int getLineNumber(final int i){
+		return (int) lines.get(i);
+	}
+
+	/**
+	 * Find the last kept record starting at or before a line.
+	 *
+	 * @param lineNumber
+	 * @return index of the kept record, or -1 when the line comes before all of them.
+	 */
+	public int floorByLine(final long lineNumber){
+		return floor(lines, lineNumber);
+	}
+
+	/**
+	 * Find the first kept record starting at or after a byte position.
+	 *
+	 * @param position
+	 * @return index of the kept record, or size() when none starts there or later.
+	 */
+	public int ceilingByOffset(final long position){
+		int i = floor(offsets, position);
+		return (i >= 0 && offsets.get(i) == position ? i : i + 1);
+	}
+
+	private int floor(final LongBuffer values, final long key){
+		int low = 0;
+		int high = count - 1;
+		while(low <= high){
+			int mid = (low + high) >>> 1;
+			long value = values.get(mid);
+			if (value <= key){
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return high;
+	}
+
+	/**
+	 * Open a reader on the record starting at a line, such as the line of a search hit's _doc_id.
+	 *
+	 * Reading starts at the nearest kept offset before the line and skips forward, so at most
+	 * interval records are scanned. Without offsets it skips forward from the first record.
+	 *
+	 * @param prototype		reader with the file's separator, quote and comment settings.
+	 * @param file			csv file
+	 * @param lineNumber	line the record starts on.
+	 * @param offsets		current offsets of the file, or null.
+	 * @return reader whose next record is the one at the line, or the first after it.
+	 * @throws IOException
+	 */
+	public static MappedCSVReader openAtLine(final MappedCSVReader prototype, final File file, final int lineNumber, final RecordOffsets offsets) throws IOException {
+		MappedCSVReader headerReader = prototype.newReader();
+		headerReader.open(file);
+		String[] header = headerReader.getHeader();
+		long start = headerReader.getRecordPosition();
+		int startLine = headerReader.getRecordLineNumber();
+		headerReader.close();
+
+		int i = (offsets != null ? offsets.floorByLine(lineNumber) : -1);
+		if (i >= 0){
+			start = offsets.getOffset(i);
+			startLine = offsets.getLineNumber(i);
+		}
+
+		MappedCSVReader reader = prototype.newReader();
+		reader.open(file, start, file.length(), startLine, header);
+		while(reader.hasNext() && reader.getRecordLineNumber() < lineNumber){
+			reader.skip();
+		}
+		return reader;
+	}
+
+	/**
+	 * Collects the offset of every Nth record while a file is read; see MappedCSVReader.setOffsetBuilder().
+	 *
+	 * Not thread safe; each reader needs its own builder. Builders of a file's partitions are
+	 * combined in file order with addAll(); each partition keeps its own first record, so kept
+	 * records are then at most interval apart rather than exactly.
+	 */
+	public static class Builder {
+		private final int interval;
+		private long[] offsets = new long[64];
+		private long[] lines = new long[64];
+		private int count = 0;
+		private long records = 0;
+
+		/**
+		 * @param interval		keep the offset of every interval-th record.
+		 */
+		public Builder(final int interval){
+			this.interval = Math.max(1, interval);
+		}
+
+		/**
+		 * Count a record, keeping its offset when it is the next Nth.
+		 *
+		 * @param offset		byte position where the record starts.
+		 * @param lineNumber	line the record starts on.
+		 */
+		public void add(final long offset, final int lineNumber){
+			if (records++ % interval == 0){
+				keep(offset, lineNumber);
+			}
+		}
+
+		private void keep(final long offset, final long lineNumber){
+			if (count == offsets.length){
+				offsets = Arrays.copyOf(offsets, count * 2);
+				lines = Arrays.copyOf(lines, count * 2);
+			}
+			offsets[count] = offset;
+			lines[count] = lineNumber;
+			count++;
+		}
+
+		/**
+		 * Append the offsets of the following part of the file.
+		 *
+		 * @param next
+		 */
+		public void addAll(final Builder next){
+			for(int i=0; i < next.count; i++){
+				keep(next.offsets[i], next.lines[i]);
+			}
+			records += next.records;
+		}
+
+		/**
+		 * @return number of offsets kept.
+		 */
+		public int size(){
+			return count;
+		}
+
+		/**
+		 * Write the sidecar of a csv file.
+		 *
+		 * @param sidecar
+		 * @param file		csv file the offsets were taken from.
+		 * @throws IOException
+		 */
+		public void write(final File sidecar, final File file) throws IOException {
+			File parent = sidecar.getAbsoluteFile().getParentFile();
+			if (parent != null){
+				parent.mkdirs();
+			}
+			File partial = new File(sidecar.getPath() + ".tmp");
+			RandomAccessFile randomAccessFile = new RandomAccessFile(partial, "rw");
+			try {
+				FileChannel channel = randomAccessFile.getChannel();
+				ByteBuffer buffer = ByteBuffer.allocate((HEADER_LONGS + 2 * count) * 8);
+				buffer.putLong(MAGIC).putLong(file.length()).putLong(file.lastModified()).putLong(interval).putLong(count);
+				buffer.asLongBuffer().put(offsets, 0, count);
+				buffer.position(buffer.position() + count * 8);
+				buffer.asLongBuffer().put(lines, 0, count);
+				buffer.rewind();
+				randomAccessFile.setLength(buffer.capacity());
+				while(buffer.hasRemaining()){
+					channel.write(buffer);
+				}
+			} finally {
+				randomAccessFile.close();
+			}
+			if (!partial.renameTo(sidecar)){
+				sidecar.delete();
+				if (!partial.renameTo(sidecar)){
+					throw new IOException("Failed to write " + sidecar.getAbsolutePath());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Main method used for testing; builds the sidecar of a file, then reads the record at a line through it.
+	 *
+	 * @param args	csv file, line number and optionally the interval.
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		File file = new File(args[0]);
+		int lineNumber = Integer.parseInt(args[1]);
+		int interval = (args.length > 2 ? Integer.parseInt(args[2]) : 1024);
+
+		Stopwatch stopwatch = Stopwatch.createStarted();
+
+		MappedCSVReader prototype = new MappedCSVReader(',', '"', '#');
+		MappedCSVReader reader = prototype.newReader();
+		Builder builder = new Builder(interval);
+		reader.setOffsetBuilder(builder);
+		reader.open(file);
+		while(reader.hasNext()){
+			reader.skip();
+		}
+		reader.close();
+
+		File sidecar = new File(file.getPath() + ".off");
+		builder.write(sidecar, file);
+		System.out.println("offsets: " + builder.size() + " built in " + stopwatch);
+
+		stopwatch.reset().start();
+		MappedCSVReader seek = openAtLine(prototype, file, lineNumber, RecordOffsets.open(sidecar));
+		if (seek.hasNext()){
+			int line = seek.getRecordLineNumber();
+			System.out.println(line + " " + Arrays.toString(seek.next()));
+		}
+		seek.close();
+		System.out.println("seek time: " + stopwatch);
+	}
+
+}
@@ -0,0 +1,33 @@
+/**
+ *
+ */
+package us.brianfeldman.fileformat.csv;
+
+import java.io.IOException;
+
+/**
+ * RecordReadException is thrown by the Iterator methods of a reader, which can not throw an IOException,
+ * when the file fails part way through. The records after it are lost, so the file must not be taken
+ * as read to its end.
+ *
+ * @author Brian G. Feldman (bgfeldm@yahoo.com)
+ *
+ */
+public class RecordReadException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @param message
+	 * @param cause
+	 */
+	public RecordReadException(final String message, final IOException cause){
+		super(message, cause);
+	}
+
+	@Override
+	public IOException getCause(){
+		return (IOException) super.getCause();
+	}
+
+}
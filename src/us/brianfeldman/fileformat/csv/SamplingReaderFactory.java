@@ -0,0 +1,282 @@
+/**
+ *
+ */
+package us.brianfeldman.fileformat.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * SamplingReaderFactory picks the separator for each file from a sample of its first bytes, and the reader from its encoding.
+ *
+ * The separator is the candidate (',' ';' tab '|') found the same number of times, outside quotes,
+ * on nearly every sampled record, preferring the one splitting records into the most columns.
+ * When no candidate is consistent the default separator is kept.
+ *
+ * The reader is not picked by the shape of the file. MappedCSVReader splits records on raw bytes without
+ * decoding them first, follows the same rules as SuperCSVReader (see CSVReaderCompare), and is the only reader
+ * able to split a large file into byte ranges or to resume one part way; so it reads every file it can,
+ * whatever its size, quoting or comments. It can not read an encoding in which ASCII characters are not single
+ * bytes, such as UTF-16, whether given by a byte order mark or configured; SuperCSVReader reads those files
+ * through the matching decoder instead. The bench module measures the readers against each other.
+ *
+ * @author Brian G. Feldman (bgfeldm@yahoo.com)
+ *
+ */
+public class SamplingReaderFactory implements RecordIteratorFactory {
+	private static final Logger LOG = LoggerFactory.getLogger(SamplingReaderFactory.class);
+
+	private static final int SAMPLE_SIZE = 64 * 1024;
+	private static final double CONSISTENCY = 0.9;  // share of sampled records with the header's separator count.
+	private static final char[] SEPARATORS = {',', ';', '\t', '|'};
+
+	private final char defaultSeparator;
+	private final char quote;
+	private final char comment;
+	private Charset charset = CSVInput.DEFAULT_CHARSET;
+
+	/**
+	 * Sample files with the usual ',' separator, '"' quote and '#' comment character.
+	 */
+	public SamplingReaderFactory(){
+		this(',', '"', '#');
+	}
+
+	/**
+	 * @param defaultSeparator	separator used when sampling can not tell.
+	 * @param quote				character use to enclose fields containing a separator. usually '"'
+	 * @param comment			leading character used on comment lines. Comment lines are ignored.
+	 */
+	public SamplingReaderFactory(final char defaultSeparator, final char quote, final char comment){
+		this.defaultSeparator = defaultSeparator;
+		this.quote = quote;
+		this.comment = comment;
+	}
+
+	/**
+	 * Set the character encoding of files without a byte order mark.
+	 *
+	 * @param charset
+	 */
+	public void setCharset(final Charset charset){
+		this.charset = charset;
+	}
+
+	@Override
+	public RecordIterator newReader(final File file) throws IOException {
+		Sample sample = sample(file);
+
+		RecordIterator reader;
+		if (MappedCSVReader.isAsciiCompatible(sample.getCharset())){
+			reader = new MappedCSVReader(sample.getSeparator(), quote, comment);
+		} else {
+			reader = new SuperCSVReader(sample.getSeparator(), quote, comment);
+		}
+		reader.setCharset(sample.getCharset());
+
+		LOG.info("Sampled {} : {} ; reading with {}", file.getAbsolutePath(), sample, reader.getClass().getSimpleName());
+		return reader;
+	}
+
+	/**
+	 * Read the start of a file and work out its separator.
+	 *
+	 * @param file
+	 * @return sample
+	 * @throws IOException
+	 */
+	public Sample sample(final File file) throws IOException {
+		byte[] bytes = new byte[SAMPLE_SIZE];
+		int length = 0;
+		boolean complete = false;
+		InputStream in = CSVInput.open(file);
+		try {
+			while(length < bytes.length){
+				int n = in.read(bytes, length, bytes.length - length);
+				if (n < 0){
+					complete = true;
+					break;
+				}
+				length += n;
+			}
+		} finally {
+			in.close();
+		}
+
+		Charset bom = byteOrderMark(bytes, length);
+		Charset encoding = (bom != null ? bom : charset);
+		if (!MappedCSVReader.isAsciiCompatible(encoding)){
+			return sample(new String(bytes, 0, length, encoding), complete, encoding);
+		}
+		return sample(new String(bytes, 0, length, StandardCharsets.ISO_8859_1), complete, encoding);  // separators are ASCII; other bytes just pass.
+	}
+
+	private static Charset byteOrderMark(final byte[] bytes, final int length){
+		if (length >= 3 && (bytes[0] & 0xFF) == 0xEF && (bytes[1] & 0xFF) == 0xBB && (bytes[2] & 0xFF) == 0xBF){
+			return StandardCharsets.UTF_8;
+		}
+		if (length >= 2 && (bytes[0] & 0xFF) == 0xFE && (bytes[1] & 0xFF) == 0xFF){
+			return StandardCharsets.UTF_16;
+		}
+		if (length >= 2 && (bytes[0] & 0xFF) == 0xFF && (bytes[1] & 0xFF) == 0xFE){
+			return StandardCharsets.UTF_16;
+		}
+		return null;
+	}
+
+	/**
+	 * Count each candidate separator per record, outside quotes, skipping blank and comment lines.
+	 *
+	 * @param text		start of the file.
+	 * @param complete	whether the text holds the whole file; otherwise the cut off last record is ignored.
+	 * @param charset	encoding given by a byte order mark, or else the one configured.
+	 * @return sample
+	 */
+	private Sample sample(final String text, final boolean complete, final Charset charset){
+		List<int[]> counts = new ArrayList<int[]>();
+
+		int[] record = new int[SEPARATORS.length];
+		boolean inQuotes = false;
+		boolean lineStart = true;
+		boolean empty = true;
+		for(int i=0; i < text.length(); i++){
+			char c = text.charAt(i);
+			if (lineStart && !inQuotes && (c == comment || c == '\n' || c == '\r')){
+				int end = text.indexOf('\n', i);
+				if (end < 0){
+					break;
+				}
+				i = end;
+				continue;
+			}
+			lineStart = false;
+
+			if (c == quote){
+				inQuotes = !inQuotes;
+			} else if (!inQuotes && (c == '\n' || c == '\r')){
+				if (!empty){
+					counts.add(record);
+				}
+				record = new int[SEPARATORS.length];
+				empty = true;
+				lineStart = true;
+			} else if (!inQuotes){
+				for(int s=0; s < SEPARATORS.length; s++){
+					if (c == SEPARATORS[s]){
+						record[s]++;
+					}
+				}
+				empty = false;
+			}
+		}
+		if (complete && !empty){
+			counts.add(record);
+		}
+
+		return new Sample(chooseSeparator(counts), counts.size(), charset);
+	}
+
+	private char chooseSeparator(final List<int[]> counts){
+		if (counts.isEmpty()){
+			return defaultSeparator;
+		}
+
+		char separator = defaultSeparator;
+		int columns = 0;
+		int[] header = counts.get(0);
+		for(int s=0; s < SEPARATORS.length; s++){
+			if (header[s] == 0){
+				continue;
+			}
+			int consistent = 0;
+			for(int[] record : counts){
+				if (record[s] == header[s]){
+					consistent++;
+				}
+			}
+			if (consistent >= counts.size() * CONSISTENCY && header[s] + 1 > columns){
+				separator = SEPARATORS[s];
+				columns = header[s] + 1;
+			}
+		}
+		return separator;
+	}
+
+	/**
+	 * What sampling found out about a file.
+	 */
+	public static class Sample {
+		private final char separator;
+		private final int records;
+		private final Charset charset;
+
+		Sample(final char separator, final int records, final Charset charset){
+			this.separator = separator;
+			this.records = records;
+			this.charset = charset;
+		}
+
+		/**
+		 * @return separator found, or the default one.
+		 */
+		public char getSeparator() {
+			return separator;
+		}
+
+		/**
+		 * @return number of records sampled, including the header.
+		 */
+		public int getRecords() {
+			return records;
+		}
+
+		/**
+		 * @return encoding given by a byte order mark, or else the one configured.
+		 */
+		public Charset getCharset() {
+			return charset;
+		}
+
+		@Override
+		public String toString(){
+			return "separator '" + (separator == '\t' ? "\\t" : String.valueOf(separator)) + "' records " + records + " encoding " + charset.name();
+		}
+	}
+
+	/**
+	 * Main method used for testing.
+	 *
+	 * @param args	csv files
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+
+		SamplingReaderFactory factory = new SamplingReaderFactory();
+		for(String filename : args){
+			File file = new File(filename);
+			RecordIterator reader = factory.newReader(file);
+			reader.open(file);
+			System.out.println(filename + " " + factory.sample(file) + " " + reader.getClass().getSimpleName() + " " + Arrays.toString(reader.getHeader()));
+			for(int c=1; c < 4 && reader.hasNext(); c++){
+				System.out.println(c+" " + Arrays.toString( reader.next() ));
+			}
+			reader.close();
+		}
+
+		stopwatch.stop();
+		System.out.println("time: "+stopwatch);
+	}
+
+}
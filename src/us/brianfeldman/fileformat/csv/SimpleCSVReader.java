@@ -6,10 +6,10 @@ package us.brianfeldman.fileformat.csv;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -35,6 +35,7 @@ public class SimpleCSVReader implements RecordIterator {
     private static final Logger LOG = LoggerFactory.getLogger(SimpleCSVReader.class);
 	
     private File file;
+    private Charset charset = CSVInput.DEFAULT_CHARSET;
     private BufferedReader reader;
     private String[] header;
     private String[] nextLine;
@@ -51,10 +52,10 @@ public class SimpleCSVReader implements RecordIterator {
 	@Override
 	public void open(final File file) throws IOException {
 		 this.file = file;
-		 FileInputStream fstream = new FileInputStream(file);
+		 InputStream fstream = CSVInput.open(file);  // gzip files are decompressed in the background.
          //fstream.skip(8); // trim off magic header.
 		 
-         this.reader = new BufferedReader(new InputStreamReader(fstream), 32768);
+         this.reader = new BufferedReader(new InputStreamReader(fstream, charset), 32768);
          this.header = reader.readLine().split(separator);
          currentLineNumber++; // counting header as a line.
          this.nextLine = readLine();
@@ -72,9 +73,21 @@ public class SimpleCSVReader implements RecordIterator {
 		return currentLineNumber;
     }
 
+	@Override
+	public SimpleCSVReader newReader(){
+		SimpleCSVReader reader = new SimpleCSVReader(separator.charAt(0));
+		reader.charset = this.charset;
+		return reader;
+	}
+
+	@Override
+	public void setCharset(final Charset charset){
+		this.charset = charset;
+	}
+
 	@Override
     public String getFileName(){
-		return file.getName();
+		return file.getAbsolutePath();
     }
     
 	@Override
@@ -125,6 +138,16 @@ public class SimpleCSVReader implements RecordIterator {
 	public void remove() {
 		throw new UnsupportedOperationException("CsvIterator does not support remove operation");
 	}
+
+	@Override
+	public RecordBatch nextBatch(final int max) {
+		return RecordBatch.read(this, max);
+	}
+
+	@Override
+	public void nextBatch(final RecordBatch batch) {
+		RecordBatch.fill(this, batch);
+	}
 	
 	
 	/**
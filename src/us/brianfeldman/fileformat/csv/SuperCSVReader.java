@@ -5,12 +5,12 @@ package us.brianfeldman.fileformat.csv;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.List;
 
@@ -35,6 +35,7 @@ public class SuperCSVReader implements RecordIterator {
 	private static final Logger LOG = LoggerFactory.getLogger(SuperCSVReader.class);
 
 	private File file;
+	private Charset charset = CSVInput.DEFAULT_CHARSET;
 	private String[] currentLine;
 	private ICsvListReader csvReader;
 	private String[]      header;
@@ -78,9 +79,9 @@ public class SuperCSVReader implements RecordIterator {
 	@Override
 	public void open(final File file) throws IOException{
 		this.file=file;
-		InputStream inputStream = new FileInputStream(file);
+		InputStream inputStream = CSVInput.open(file);  // gzip files are decompressed in the background.
 		// inputStream.skip(8); // Skip over first couple byes of file.
-		this.csvReader = new CsvListReader(new BufferedReader(new InputStreamReader(inputStream), 32768), csvPreference);
+		this.csvReader = new CsvListReader(new BufferedReader(new InputStreamReader(inputStream, charset), 32768), csvPreference);
 		try {
 			this.header = csvReader.getHeader(false);
 			List<String> nextLine = csvReader.read();
@@ -114,6 +115,20 @@ public class SuperCSVReader implements RecordIterator {
 		return csvReader.getLineNumber();
 	}
 
+	@Override
+	public SuperCSVReader newReader(){
+		SuperCSVReader reader = new SuperCSVReader(separator, quote);
+		reader.comment = this.comment;
+		reader.csvPreference = this.csvPreference;
+		reader.charset = this.charset;
+		return reader;
+	}
+
+	@Override
+	public void setCharset(final Charset charset){
+		this.charset = charset;
+	}
+
 	@Override
 	public String getFileName(){
 		return this.file.getAbsolutePath();
@@ -163,6 +178,16 @@ public class SuperCSVReader implements RecordIterator {
 		throw new UnsupportedOperationException("CsvIterator does not support remove operation");
 	}
 
+	@Override
+	public RecordBatch nextBatch(final int max) {
+		return RecordBatch.read(this, max);
+	}
+
+	@Override
+	public void nextBatch(final RecordBatch batch) {
+		RecordBatch.fill(this, batch);
+	}
+
 	/**
 	 * Main method used for testing.
 	 * 
@@ -0,0 +1,60 @@
+/**
+ *
+ */
+package us.brianfeldman.lucene;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MergeTrigger;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.TieredMergePolicy;
+
+/**
+ * BulkMergePolicy defers merging while a load streams records in, so background merges do not take cpu
+ * and disk from indexing; the index is merged once at the end instead, see Indexer.closeWriter().
+ *
+ * Segments are left alone until there are more than maxSegments of them, to keep the number of open
+ * files in check on very large loads; past that it merges as a TieredMergePolicy with wide tiers.
+ * Forced merges are those of TieredMergePolicy.
+ *
+ * @author Brian G. Feldman <bgfeldm@yahoo.com>
+ */
+public class BulkMergePolicy extends TieredMergePolicy {
+
+	private final int maxSegments;
+	private volatile int segmentCount = 0;
+
+	/**
+	 * @param maxSegments	segments left unmerged while loading.
+	 */
+	public BulkMergePolicy(final int maxSegments){
+		this.maxSegments = maxSegments;
+		setSegmentsPerTier(Math.max(10, maxSegments / 4));
+	}
+
+	/**
+	 * @return number of segments when merges were last looked for.
+	 */
+	public int getSegmentCount(){
+		return segmentCount;
+	}
+
+	@Override
+	public MergeSpecification findMerges(MergeTrigger mergeTrigger, SegmentInfos infos, IndexWriter writer) throws IOException {
+		segmentCount = infos.size();
+		if (infos.size() <= maxSegments){
+			return null;
+		}
+		return super.findMerges(mergeTrigger, infos, writer);
+	}
+
+	@Override
+	public MergeSpecification findForcedMerges(SegmentInfos infos, int maxSegmentCount, Map<SegmentCommitInfo, Boolean> segmentsToMerge, IndexWriter writer) throws IOException {
+		segmentCount = infos.size();
+		return super.findForcedMerges(infos, maxSegmentCount, segmentsToMerge, writer);
+	}
+
+}
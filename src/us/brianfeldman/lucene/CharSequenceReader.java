@@ -0,0 +1,69 @@
+/**
+ *
+ */
+package us.brianfeldman.lucene;
+
+import java.io.Reader;
+
+/**
+ * CharSequenceReader is a Reader over a CharSequence which can be pointed at a new value,
+ * so a Lucene field can be fed from a field slice without creating a String or a new Reader per value.
+ *
+ * close() does not release anything; the reader stays usable after reset().
+ *
+ * @author Brian G. Feldman <bgfeldm@yahoo.com>
+ */
+public class CharSequenceReader extends Reader {
+
+	private CharSequence value = "";
+	private int position = 0;
+
+	/**
+	 * Point the reader at a new value.
+	 *
+	 * @param value
+	 * @return this reader.
+	 */
+	public CharSequenceReader reset(final CharSequence value){
+		this.value = value;
+		this.position = 0;
+		return this;
+	}
+
+	@Override
+	public int read(){
+		return (position < value.length() ? value.charAt(position++) : -1);
+	}
+
+	@Override
+	public int read(final char[] cbuf, final int off, final int len){
+		final int remaining = value.length() - position;
+		if (remaining <= 0){
+			return -1;
+		}
+		final int n = Math.min(len, remaining);
+		for(int i=0; i < n; i++){
+			cbuf[off + i] = value.charAt(position + i);
+		}
+		position += n;
+		return n;
+	}
+
+	@Override
+	public long skip(final long n){
+		final int skipped = (int) Math.min(n, value.length() - position);
+		position += skipped;
+		return skipped;
+	}
+
+	@Override
+	public boolean ready(){
+		return true;
+	}
+
+	@Override
+	public void close(){
+		// reusable; nothing to release.
+	}
+
+}
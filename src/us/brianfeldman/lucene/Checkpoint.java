@@ -0,0 +1,451 @@
+/**
+ *
+ */
+package us.brianfeldman.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.lucene.index.IndexWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+
+import us.brianfeldman.fileformat.csv.MappedCSVReader;
+import us.brianfeldman.fileformat.csv.RecordIterator;
+
+/**
+ * Checkpoint commits the index every N records or T seconds during a load, recording in the
+ * commit's user data how far each file has been read, so an aborted load resumes from the last commit.
+ *
+ * Reader threads hold the read lock while they read a batch, queue it and note their progress.
+ * A commit takes the write lock, so no batch is half queued, and waits until the worker threads have
+ * indexed every queued task; the progress committed is then exactly what the index holds, and
+ * resuming from it neither repeats nor misses a record. Shards, when written, are committed first; see Shards.
+ *
+ * Each file read is kept in the user data as progress:<absolute path> = done, or as size,last modified|streams,
+ * the file's size and last modified time when its reading began, then its streams separated by ';', each
+ * position,end,line,records. A ranged stream, a byte range read by the MappedCSVReader, resumes by opening
+ * its range at position. Other streams have position -1 and resume by skipping the records already indexed.
+ * Files not listed are read from the start, and so are files whose size or last modified time moved since,
+ * once their records are deleted; see isResumable().
+ * Once the whole load completes only files still being read, such as followed files, keep their progress.
+ *
+ * A task that fails to be indexed loses its records, so once one fails no further commit is taken and the
+ * load fails at its end; see failed() and checkFailure(). Resuming then reads again from the last commit.
+ *
+ * @author Brian G. Feldman <bgfeldm@yahoo.com>
+ */
+public class Checkpoint {
+	private static final Logger LOG = LoggerFactory.getLogger(Checkpoint.class);
+
+	/** Prefix of the commit user data keys holding the progress of a file. */
+	public static final String PROGRESS_PREFIX = "progress:";
+	private static final String DONE = "done";
+	private static final char STAT_SEPARATOR = '|';
+
+	private final IndexWriter writer;
+	private final Schema schema;
+	private final Manifest manifest;
+	private final Shards shards;
+	private final File indexDirectory;
+	private final long commitRecords;
+	private final long commitMillis;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);  // fair, so a commit is not starved by readers.
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong uncommittedRecords = new AtomicLong();
+	private volatile long lastCommitTime = System.currentTimeMillis();
+	private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+	private final Map<String, List<Stream>> reading = new LinkedHashMap<String, List<Stream>>();
+	private final Map<String, Manifest.Entry> readingStats = new HashMap<String, Manifest.Entry>();  // of each file when its reading began.
+	private final Set<String> done = new LinkedHashSet<String>();
+	private final Map<String, String> resume = new ConcurrentHashMap<String, String>();  // progress of the last commit.
+
+	/**
+	 * @param writer			writer of the index, opened on its last commit.
+	 * @param schema			column types, stored with each commit.
+	 * @param manifest			files indexed, kept in the user data of each commit.
+	 * @param shards			shards committed ahead of the index, or null.
+	 * @param indexDirectory
+	 * @param commitRecords		records between commits; 0 for none.
+	 * @param commitSeconds		seconds between commits; 0 for none.
+	 */
+	public Checkpoint(final IndexWriter writer, final Schema schema, final Manifest manifest, final Shards shards, final File indexDirectory, final long commitRecords, final int commitSeconds){
+		this.writer = writer;
+		this.schema = schema;
+		this.manifest = manifest;
+		this.shards = shards;
+		this.indexDirectory = indexDirectory;
+		this.commitRecords = commitRecords;
+		this.commitMillis = commitSeconds * 1000L;
+
+		if (writer != null){
+			for(Map.Entry<String, String> entry : writer.getCommitData().entrySet()){
+				if (entry.getKey().startsWith(PROGRESS_PREFIX)){
+					resume.put(entry.getKey().substring(PROGRESS_PREFIX.length()), entry.getValue());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return whether the last commit was taken part way through a load.
+	 */
+	public boolean isResuming(){
+		return !resume.isEmpty();
+	}
+
+	/**
+	 * @param file
+	 * @return whether the file was completely indexed before the load was interrupted.
+	 */
+	public boolean isDone(final File file){
+		return DONE.equals(resume.get(file.getAbsolutePath()));
+	}
+
+	/**
+	 * Get the streams of a file that was part way read when the load was interrupted.
+	 *
+	 * @param file
+	 * @return streams as committed, or null when the file is to be read from the start.
+	 */
+	public List<Stream> getResumeStreams(final File file){
+		String progress = resume.get(file.getAbsolutePath());
+		if (progress == null || DONE.equals(progress)){
+			return null;
+		}
+		List<Stream> streams = new ArrayList<Stream>();
+		for(String stream : progress.substring(progress.indexOf(STAT_SEPARATOR) + 1).split(";")){
+			String[] values = stream.split(",");
+			streams.add(new Stream(Long.parseLong(values[0]), Long.parseLong(values[1]), Integer.parseInt(values[2]), Long.parseLong(values[3])));
+		}
+		return streams;
+	}
+
+	/**
+	 * Check whether a file part way read when the load was interrupted can be resumed from its streams,
+	 * or must be read again from the start since it changed meanwhile.
+	 *
+	 * @param file
+	 * @param appended		true when records may only have been appended since, as to a followed file.
+	 * @return false when its size or last modified time moved, it shrank while appended to, or its progress has neither.
+	 */
+	public boolean isResumable(final File file, final boolean appended){
+		String progress = resume.get(file.getAbsolutePath());
+		int separator = (progress != null ? progress.indexOf(STAT_SEPARATOR) : -1);
+		if (separator < 0){
+			return false;  // committed without them.
+		}
+		Manifest.Entry committed = Manifest.Entry.parse(progress.substring(0, separator));
+		Manifest.Entry current = Manifest.describe(file);
+		return (appended ? current.getSize() >= committed.getSize() : current.sameStat(committed));
+	}
+
+	/**
+	 * Start tracking a stream of a file.
+	 *
+	 * @param file
+	 * @param position		absolute position of the first record of a byte range, or -1 when not read by range.
+	 * @param end			absolute position just past the last record of the range.
+	 * @param lineNumber	line of the first record.
+	 * @param records		records of the stream already indexed.
+	 * @return stream, to be passed to read() with each batch.
+	 */
+	public Stream begin(final File file, final long position, final long end, final int lineNumber, final long records){
+		Stream stream = new Stream(position, end, lineNumber, records);
+		synchronized(reading){
+			List<Stream> streams = reading.get(file.getAbsolutePath());
+			if (streams == null){
+				streams = new ArrayList<Stream>();
+				reading.put(file.getAbsolutePath(), streams);
+				readingStats.put(file.getAbsolutePath(), Manifest.describe(file));
+			}
+			streams.add(stream);
+		}
+		return stream;
+	}
+
+	/**
+	 * Mark a file completely read; once its queued records are committed it is not read again on resume.
+	 *
+	 * @param file
+	 */
+	public void finish(final File file){
+		synchronized(reading){
+			reading.remove(file.getAbsolutePath());
+			readingStats.remove(file.getAbsolutePath());
+			done.add(file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Stop tracking a file, as it is to be read again from the start.
+	 *
+	 * @param file
+	 */
+	public void abandon(final File file){
+		synchronized(reading){
+			reading.remove(file.getAbsolutePath());
+			readingStats.remove(file.getAbsolutePath());
+			resume.remove(file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Hold off commits while reading a batch, queuing it and noting its progress. Must be followed by read().
+	 */
+	public void enter(){
+		lock.readLock().lock();
+	}
+
+	/**
+	 * Note the progress of a stream after queuing a batch, and commit when one is due.
+	 *
+	 * @param stream
+	 * @param reader		reader positioned after the batch.
+	 * @param records		records in the batch; 0 when none was read.
+	 */
+	public void read(final Stream stream, final RecordIterator reader, final int records){
+		try {
+			if (records > 0){
+				stream.advance(reader, records);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		uncommittedRecords.addAndGet(records);
+		if (isDue()){
+			commitIfDue();
+		}
+	}
+
+	private synchronized void commitIfDue(){
+		if (isDue()){  // not committed by another thread meanwhile.
+			commit(false);
+		}
+	}
+
+	/**
+	 * Commit records indexed since the last commit, when it is at least a number of milliseconds old.
+	 * Called while following files, so new records become searchable soon after they are written.
+	 *
+	 * @param millis
+	 */
+	public synchronized void commitWithin(final long millis){
+		if (uncommittedRecords.get() > 0 && System.currentTimeMillis() - lastCommitTime >= millis){
+			commit(false);
+		}
+	}
+
+	private boolean isDue(){
+		if (failure.get() != null){
+			return false;  // never committed again.
+		}
+		return (commitRecords > 0 && uncommittedRecords.get() >= commitRecords)
+				|| (commitMillis > 0 && System.currentTimeMillis() - lastCommitTime >= commitMillis);
+	}
+
+	/**
+	 * Count a task queued for the worker threads.
+	 */
+	public void queued(){
+		inFlight.incrementAndGet();
+	}
+
+	/**
+	 * Count a task finished by a worker thread.
+	 */
+	public void indexed(){
+		inFlight.decrementAndGet();
+	}
+
+	/**
+	 * Record a task that failed to be indexed, or a commit that failed; only the first failure is kept.
+	 *
+	 * @param e
+	 */
+	public void failed(final Exception e){
+		failure.compareAndSet(null, e);
+	}
+
+	/**
+	 * @return whether a task or a commit failed, after which nothing more is committed.
+	 */
+	public boolean isFailed(){
+		return failure.get() != null;
+	}
+
+	/**
+	 * Fail the load when a task or a commit failed.
+	 *
+	 * @throws IOException
+	 */
+	public void checkFailure() throws IOException {
+		if (failure.get() != null){
+			throw new IOException("Failed indexing records; nothing was committed after the failure", failure.get());
+		}
+	}
+
+	/**
+	 * Commit the queued records with the progress of each file.
+	 *
+	 * Nothing is committed once a task failed, since the progress would include the records it lost.
+	 *
+	 * @param complete	true once the whole load is done, dropping the progress of files done;
+	 * 					the manifest keeps them from being read again.
+	 */
+	public synchronized void commit(final boolean complete){
+		lock.writeLock().lock();
+		try {
+			while(inFlight.get() > 0){
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					LOG.error("Checkpoint Interrupted", e);
+					return;
+				}
+			}
+			if (failure.get() != null){
+				LOG.error("Not committing {} records, since records failed to be indexed", uncommittedRecords.get());
+				return;
+			}
+
+			Map<String, String> commitData = new HashMap<String, String>();
+			for(Map.Entry<String, String> entry : writer.getCommitData().entrySet()){
+				if (!entry.getKey().startsWith(PROGRESS_PREFIX)){
+					commitData.put(entry.getKey(), entry.getValue());
+				}
+			}
+			manifest.addTo(commitData);
+			commitData.putAll(progress(complete));
+
+			Stopwatch stopwatch = Stopwatch.createStarted();
+			if (shards != null){
+				shards.commit(commitData);  // first, so the progress committed below is never ahead of them.
+			}
+			schema.store(indexDirectory);
+			writer.setCommitData(commitData);
+			writer.commit();
+			LOG.info("Committed {} records; {} files done, {} being read; time: {}", uncommittedRecords.get(), done.size(), reading.size(), stopwatch);
+			if (complete){
+				synchronized(reading){
+					done.clear();
+				}
+			}
+			uncommittedRecords.set(0);
+			lastCommitTime = System.currentTimeMillis();
+		} catch (IOException e) {
+			LOG.error("Failed to commit checkpoint", e);
+			failed(e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private Map<String, String> progress(final boolean complete){
+		Map<String, String> progress = new HashMap<String, String>();
+		synchronized(reading){
+			if (!complete){
+				for(Map.Entry<String, String> entry : resume.entrySet()){
+					progress.put(PROGRESS_PREFIX + entry.getKey(), entry.getValue());  // files not reached again yet.
+				}
+				for(String file : done){
+					progress.put(PROGRESS_PREFIX + file, DONE);
+				}
+			}
+			for(Map.Entry<String, List<Stream>> entry : reading.entrySet()){
+				StringBuilder streams = new StringBuilder();
+				streams.append(readingStats.get(entry.getKey())).append(STAT_SEPARATOR);
+				for(int s=0; s < entry.getValue().size(); s++){
+					if (s > 0){
+						streams.append(';');
+					}
+					streams.append(entry.getValue().get(s));
+				}
+				progress.put(PROGRESS_PREFIX + entry.getKey(), streams.toString());
+			}
+		}
+		return progress;
+	}
+
+	/**
+	 * Progress of one reader over a file, or over a byte range of it.
+	 */
+	public static class Stream {
+		private long position;
+		private final long end;
+		private int lineNumber;
+		private long records;
+
+		Stream(final long position, final long end, final int lineNumber, final long records){
+			this.position = position;
+			this.end = end;
+			this.lineNumber = lineNumber;
+			this.records = records;
+		}
+
+		private void advance(final RecordIterator reader, final int count){
+			if (isRanged()){
+				position = ((MappedCSVReader) reader).getRecordPosition();
+				lineNumber = ((MappedCSVReader) reader).getRecordLineNumber();
+			}
+			records += count;
+		}
+
+		/**
+		 * @return whether the stream is a byte range read by the MappedCSVReader.
+		 */
+		public boolean isRanged(){
+			return position >= 0;
+		}
+
+		/**
+		 * @return absolute position of the next record to read, or -1 when not ranged.
+		 */
+		public long getPosition(){
+			return position;
+		}
+
+		/**
+		 * @return absolute position just past the last record of the range.
+		 */
+		public long getEnd(){
+			return end;
+		}
+
+		/**
+		 * @return line of the next record to read.
+		 */
+		public int getLineNumber(){
+			return lineNumber;
+		}
+
+		/**
+		 * @return records read so far.
+		 */
+		public long getRecords(){
+			return records;
+		}
+
+		@Override
+		public String toString(){
+			return position + "," + end + "," + lineNumber + "," + records;
+		}
+	}
+
+}
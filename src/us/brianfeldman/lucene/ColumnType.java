@@ -0,0 +1,182 @@
+/**
+ *
+ */
+package us.brianfeldman.lucene;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.document.DoubleField;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.IntField;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+
+/**
+ * Type of a csv column, deciding how its values are indexed.
+ *
+ * TEXT columns are analyzed as before. The numeric types, and DATE as milliseconds since the epoch (UTC),
+ * are indexed as trie encoded numeric fields without analysis, so range queries on them are trie lookups.
+ * Dates are written as yyyy-MM-dd, optionally followed by a time HH:mm[:ss] after a space or 'T'.
+ * Zero padded numbers, such as zip codes or account numbers, do not match a numeric type, nor do integers
+ * too long to be held exactly, so such columns are inferred as TEXT and keep their values as written.
+ *
+ * @author Brian G. Feldman <bgfeldm@yahoo.com>
+ */
+public enum ColumnType {
+	TEXT, INT, LONG, DOUBLE, DATE;
+
+	private static final Pattern INTEGER = Pattern.compile("-?(0|[1-9]\\d*)");
+	private static final Pattern DECIMAL = Pattern.compile("-?((0|[1-9]\\d*)(\\.\\d*)?|\\.\\d+)([eE][-+]?\\d+)?");
+	private static final int DOUBLE_INTEGER_DIGITS = 15;  // longer integers are not all held exactly by a double.
+	private static final Pattern DAY = Pattern.compile("\\d{4}-\\d{1,2}-\\d{1,2}([T ]\\d{1,2}:\\d{2}(:\\d{2})?)?");
+
+	private static final String[] DATE_FORMATS = {"yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd'T'HH:mm", "yyyy-MM-dd HH:mm", "yyyy-MM-dd"};
+
+	private static final ThreadLocal<SimpleDateFormat[]> tlocalDateFormats = new ThreadLocal<SimpleDateFormat[]>(){
+		@Override
+		protected SimpleDateFormat[] initialValue(){
+			SimpleDateFormat[] formats = new SimpleDateFormat[DATE_FORMATS.length];
+			for(int i=0; i < formats.length; i++){
+				formats[i] = new SimpleDateFormat(DATE_FORMATS[i]);
+				formats[i].setLenient(false);
+				formats[i].setTimeZone(TimeZone.getTimeZone("UTC"));
+			}
+			return formats;
+		}
+	};
+
+	/**
+	 * Check whether a value looks like this type; used when inferring the type of a column.
+	 *
+	 * @param value		non empty value.
+	 * @return true when the value can be indexed as this type.
+	 */
+	public boolean matches(final String value){
+		switch(this){
+			case INT:		return INTEGER.matcher(value).matches() && parse(value) != null;
+			case LONG:		return INTEGER.matcher(value).matches() && parse(value) != null;
+			case DOUBLE:	return DECIMAL.matcher(value).matches() && !isLongInteger(value);
+			case DATE:		return DAY.matcher(value).matches() && parse(value) != null;
+			default:		return true;
+		}
+	}
+
+	/**
+	 * @param value
+	 * @return whether the value is an integer with more digits than a double holds exactly, such as a long id.
+	 */
+	private static boolean isLongInteger(final String value){
+		return INTEGER.matcher(value).matches() && value.length() - (value.startsWith("-") ? 1 : 0) > DOUBLE_INTEGER_DIGITS;
+	}
+
+	/**
+	 * Parse a value of this type.
+	 *
+	 * @param value
+	 * @return Integer, Long (also for DATE) or Double; null when empty, not of this type, or TEXT.
+	 */
+	public Number parse(final String value){
+		if (value == null || value.isEmpty()){
+			return null;
+		}
+		try {
+			switch(this){
+				case INT:		return Integer.valueOf(value.trim());
+				case LONG:		return Long.valueOf(value.trim());
+				case DOUBLE:	return Double.valueOf(value.trim());
+				case DATE:		return parseDate(value.trim());
+				default:		return null;
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static Long parseDate(final String value){
+		for(SimpleDateFormat format : tlocalDateFormats.get()){
+			ParsePosition position = new ParsePosition(0);
+			Date date = format.parse(value, position);
+			if (date != null && position.getIndex() == value.length()){
+				return date.getTime();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return whether values are indexed as numbers.
+	 */
+	public boolean isNumeric(){
+		return this != TEXT;
+	}
+
+	/**
+	 * Create a reusable, not stored, numeric field for a column of this type.
+	 *
+	 * @param name	column name.
+	 * @return field, or null for TEXT.
+	 */
+	public Field newField(final String name){
+		switch(this){
+			case INT:		return new IntField(name, 0, Store.NO);
+			case LONG:		return new LongField(name, 0L, Store.NO);
+			case DATE:		return new LongField(name, 0L, Store.NO);
+			case DOUBLE:	return new DoubleField(name, 0d, Store.NO);
+			default:		return null;
+		}
+	}
+
+	/**
+	 * Set a field created by newField() to a parsed value.
+	 *
+	 * @param field
+	 * @param value		value returned by parse().
+	 */
+	public void setValue(final Field field, final Number value){
+		switch(this){
+			case INT:		field.setIntValue(value.intValue()); break;
+			case LONG:		field.setLongValue(value.longValue()); break;
+			case DATE:		field.setLongValue(value.longValue()); break;
+			case DOUBLE:	field.setDoubleValue(value.doubleValue()); break;
+			default:		throw new IllegalStateException("TEXT columns have no numeric field");
+		}
+	}
+
+	/**
+	 * Create a range query on a column of this type.
+	 *
+	 * @param name			column name.
+	 * @param min			lower bound, or null for none.
+	 * @param max			upper bound, or null for none.
+	 * @param minInclusive
+	 * @param maxInclusive
+	 * @return query
+	 */
+	public Query newRangeQuery(final String name, final Number min, final Number max, final boolean minInclusive, final boolean maxInclusive){
+		switch(this){
+			case INT:		return NumericRangeQuery.newIntRange(name, (Integer) min, (Integer) max, minInclusive, maxInclusive);
+			case LONG:		return NumericRangeQuery.newLongRange(name, (Long) min, (Long) max, minInclusive, maxInclusive);
+			case DATE:		return NumericRangeQuery.newLongRange(name, (Long) min, (Long) max, minInclusive, maxInclusive);
+			case DOUBLE:	return NumericRangeQuery.newDoubleRange(name, (Double) min, (Double) max, minInclusive, maxInclusive);
+			default:		throw new IllegalStateException("TEXT columns have no numeric range");
+		}
+	}
+
+	/**
+	 * Look up a type by name, ignoring case.
+	 *
+	 * @param name
+	 * @return type
+	 * @throws IllegalArgumentException when there is no such type.
+	 */
+	public static ColumnType fromName(final String name){
+		return valueOf(name.trim().toUpperCase());
+	}
+
+}
@@ -11,6 +11,8 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -25,6 +27,7 @@ import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.synonym.SolrSynonymParser;
 import org.apache.lucene.analysis.synonym.SynonymMap;
 import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.queryparser.classic.QueryParser.Operator;
@@ -63,8 +66,78 @@ public class Configuration {
 
 	private double indexerCPUmultiplier = 2.0;
 
+	private String indexerProfile = "default";
+
+	private boolean indexerJmx = true;
+
+	private int indexerBulkMaxSegments = 100;
+
+	private int indexerBulkMergeSegments = 1;
+
+	private boolean indexerWorkersAdaptive = true;
+
+	private int indexerWorkersMin = 1;
+
+	private int indexerWorkersMax = 0;
+
+	private int indexerWorkersIntervalSeconds = 5;
+
 	private String[] indexerFilenameSuffixes = {"csv"};
 
+	private int indexerBatchSize = 256;
+
+	private long indexerMemoryLimit = 0;  // MB
+
+	private int indexerPartitionCount = 4;
+
+	private long indexerPartitionMinSize = 256;  // MB
+
+	private int indexerPrefetchFiles = 2;
+
+	private long indexerScheduleGroupSize = 1024;  // KB
+
+	private int indexerScheduleGroupFiles = 256;
+
+	private int indexerRingSize = 0;
+
+	private int indexerShards = 1;
+
+	private String indexerShardsRoute = "roundrobin";
+
+	private boolean indexerShardsMerge = true;
+
+	private int indexerCoordinatorWorkers = 2;
+
+	private int indexerCoordinatorPort = 0;
+
+	private int indexerCoordinatorAttempts = 3;
+
+	private String indexerCoordinatorJvmArgs = "-Xmx1g";
+
+	private String indexerRingWait = "block";
+
+	private String indexerReader = "auto";
+
+	private boolean indexerSchemaInfer = true;
+
+	private String indexerSchemaFile = null;
+
+	private Charset indexerInputEncoding = StandardCharsets.UTF_8;
+
+	private int indexerOffsetsInterval = 1024;
+
+	private long indexerCommitRecords = 1000000;
+
+	private int indexerCommitSeconds = 300;
+
+	private long indexerFollowPollMillis = 1000;
+
+	private long indexerFollowCommitMillis = 2000;
+
+	private long indexerWatchSettleMillis = 2000;
+
+	private String indexerWatchDoneDir = null;
+
 	private String defaultSearchField = "_ALL";
 	
 	private SynonymMap synonyms;
@@ -156,6 +229,9 @@ public class Configuration {
 	/**
 	 * Get IndexWriterConfig
 	 * 
+	 * With the bulk profile the RAM buffer is sized from the heap, merging is deferred by a BulkMergePolicy
+	 * and merges that do run get a thread per two cores, up to 4.
+	 * 
 	 * @return IndexWriterConfig	Configuration for the IndexWriter.
 	 */
 	public IndexWriterConfig getIndexWriterConfig(){
@@ -169,6 +245,16 @@ public class Configuration {
 		iwc.setMaxThreadStates(16);  // default is 8.  Max threads communicating with the writer.
 		iwc.setUseCompoundFile(false);
 		iwc.setWriteLockTimeout(5000);
+
+		if (isIndexerProfileBulk()){
+			long heapMB = Runtime.getRuntime().maxMemory() / 1024 / 1024;
+			iwc.setRAMBufferSizeMB(Math.max(16, Math.min(2048, heapMB / 4)));  // within the memory budget of half the heap.
+			iwc.setMergePolicy(new BulkMergePolicy(indexerBulkMaxSegments));
+			int mergeThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+			ConcurrentMergeScheduler mergeScheduler = new ConcurrentMergeScheduler();
+			mergeScheduler.setMaxMergesAndThreads(mergeThreads + 5, mergeThreads);
+			iwc.setMergeScheduler(mergeScheduler);
+		}
 		
 		return iwc;
 	}
@@ -180,6 +266,62 @@ public class Configuration {
 		return indexerCPUmultiplier;
 	}
 
+	/**
+	 * @return whether indexing metrics are published over JMX.
+	 */
+	public boolean isIndexerJmx() {
+		return indexerJmx;
+	}
+
+	/**
+	 * @return true for the bulk load profile: a large RAM buffer, merging deferred, then one forced merge at the end.
+	 */
+	public boolean isIndexerProfileBulk() {
+		return "bulk".equalsIgnoreCase(indexerProfile);
+	}
+
+	/**
+	 * @return segments left unmerged while loading with the bulk profile.
+	 */
+	public int getIndexerBulkMaxSegments() {
+		return indexerBulkMaxSegments;
+	}
+
+	/**
+	 * @return segments the index is merged down to at the end of a bulk load; 0 skips the merge.
+	 */
+	public int getIndexerBulkMergeSegments() {
+		return indexerBulkMergeSegments;
+	}
+
+	/**
+	 * @return whether the number of worker threads is adjusted to the measured throughput.
+	 */
+	public boolean isIndexerWorkersAdaptive() {
+		return indexerWorkersAdaptive;
+	}
+
+	/**
+	 * @return fewest worker threads when adaptive.
+	 */
+	public int getIndexerWorkersMin() {
+		return indexerWorkersMin;
+	}
+
+	/**
+	 * @return most worker threads when adaptive; 0 for 4 per core.
+	 */
+	public int getIndexerWorkersMax() {
+		return indexerWorkersMax;
+	}
+
+	/**
+	 * @return seconds between adjustments of the number of worker threads.
+	 */
+	public int getIndexerWorkersIntervalSeconds() {
+		return indexerWorkersIntervalSeconds;
+	}
+
 	/**
 	 * @return the indexFilenameSuffixes
 	 */
@@ -187,9 +329,198 @@ public class Configuration {
 		return indexerFilenameSuffixes;
 	}
 
+	/**
+	 * @return number of records handed to a worker thread at a time; 1 queues each record on its own.
+	 */
+	public int getIndexerBatchSize() {
+		return indexerBatchSize;
+	}
+
+	/**
+	 * @return number of byte ranges a large file is split into, each parsed on its own thread.
+	 */
+	public int getIndexerPartitionCount() {
+		return indexerPartitionCount;
+	}
+
+	/**
+	 * @return minimum file size in bytes before a file is split into byte ranges.
+	 */
+	public long getIndexerPartitionMinSize() {
+		return indexerPartitionMinSize * 1024 * 1024;
+	}
+
+	/**
+	 * @return csv parser used for every file, or "auto" to pick parser and separator per file.
+	 */
+	public String getIndexerReader() {
+		return indexerReader;
+	}
+
+	/**
+	 * @return number of files read at once, so the next file is already being parsed while one ends.
+	 */
+	public int getIndexerPrefetchFiles() {
+		return indexerPrefetchFiles;
+	}
+
+	/**
+	 * @return size in bytes below which files are handed to the reader threads in groups, and the most bytes in a group.
+	 */
+	public long getIndexerScheduleGroupSize() {
+		return indexerScheduleGroupSize * 1024;
+	}
+
+	/**
+	 * @return most files handed to a reader thread in one group.
+	 */
+	public int getIndexerScheduleGroupFiles() {
+		return indexerScheduleGroupFiles;
+	}
+
+	/**
+	 * @return slots in the ring of batches between the reader and worker threads; 0 to size it by the number of threads.
+	 */
+	public int getIndexerRingSize() {
+		return indexerRingSize;
+	}
+
+	/**
+	 * @return how threads wait on the ring: spin, yield, sleep or block.
+	 */
+	public String getIndexerRingWait() {
+		return indexerRingWait;
+	}
+
+	/**
+	 * @return number of shards, each with its own writer; 1 writes to the index alone.
+	 */
+	public int getIndexerShards() {
+		return indexerShards;
+	}
+
+	/**
+	 * @return how batches are routed to the shards: roundrobin or file.
+	 */
+	public String getIndexerShardsRoute() {
+		return indexerShardsRoute;
+	}
+
+	/**
+	 * @return whether the shards are merged into the index at the end of a load; otherwise they are searched along with it.
+	 */
+	public boolean isIndexerShardsMerge() {
+		return indexerShardsMerge;
+	}
+
+	/**
+	 * @return bytes of queued records and writer RAM at which readers wait; 0 for half the heap.
+	 */
+	public long getIndexerMemoryLimit() {
+		return indexerMemoryLimit * 1024 * 1024;
+	}
+
+	/**
+	 * @return number of local worker processes of a coordinated load.
+	 */
+	public int getIndexerCoordinatorWorkers() {
+		return indexerCoordinatorWorkers;
+	}
+
+	/**
+	 * @return port workers connect to the coordinator on; 0 for any free port, reachable from this host only.
+	 */
+	public int getIndexerCoordinatorPort() {
+		return indexerCoordinatorPort;
+	}
+
+	/**
+	 * @return times a slice is handed to a worker before its file is left out of the load.
+	 */
+	public int getIndexerCoordinatorAttempts() {
+		return indexerCoordinatorAttempts;
+	}
+
+	/**
+	 * @return arguments of the local workers' JVMs.
+	 */
+	public String getIndexerCoordinatorJvmArgs() {
+		return indexerCoordinatorJvmArgs;
+	}
+
+	/**
+	 * @return whether column types are inferred from sampled records; otherwise columns not overridden are TEXT.
+	 */
+	public boolean isIndexerSchemaInfer() {
+		return indexerSchemaInfer;
+	}
 
 	/**
-	 * Load Property File
+	 * @return properties file of column = type overriding inferred types, or null.
+	 */
+	public String getIndexerSchemaFile() {
+		return indexerSchemaFile;
+	}
+
+	/**
+	 * @return character encoding of the csv files.
+	 */
+	public Charset getIndexerInputEncoding() {
+		return indexerInputEncoding;
+	}
+
+	/**
+	 * @return records between offsets kept in each file's offset sidecar; 0 keeps no sidecars.
+	 */
+	public int getIndexerOffsetsInterval() {
+		return indexerOffsetsInterval;
+	}
+
+	/**
+	 * @return records indexed between checkpoint commits; 0 for none.
+	 */
+	public long getIndexerCommitRecords() {
+		return indexerCommitRecords;
+	}
+
+	/**
+	 * @return seconds between checkpoint commits; 0 for none.
+	 */
+	public int getIndexerCommitSeconds() {
+		return indexerCommitSeconds;
+	}
+
+	/**
+	 * @return milliseconds between polls of followed files for appended records.
+	 */
+	public long getIndexerFollowPollMillis() {
+		return indexerFollowPollMillis;
+	}
+
+	/**
+	 * @return most milliseconds records read from followed files wait to be committed.
+	 */
+	public long getIndexerFollowCommitMillis() {
+		return indexerFollowCommitMillis;
+	}
+
+	/**
+	 * @return milliseconds a dropped file must stay unchanged before it is indexed.
+	 */
+	public long getIndexerWatchSettleMillis() {
+		return indexerWatchSettleMillis;
+	}
+
+	/**
+	 * @return directory dropped files are moved to once indexed, relative to the watched directory unless absolute; null to leave them.
+	 */
+	public String getIndexerWatchDoneDir() {
+		return indexerWatchDoneDir;
+	}
+
+
+	/**
+	 * Load Property File; index.* and indexer.* System properties, -D on the java command line, take precedence.
 	 * 
 	 * @throws FileNotFoundException
 	 * @throws IOException
@@ -197,15 +528,58 @@ public class Configuration {
 	public void load() throws FileNotFoundException, IOException{
          Properties props = new Properties();
          props.load(new FileReader(PROPERTY_FILE));
+         for(String name : System.getProperties().stringPropertyNames()){
+             if (name.startsWith("index")){
+                 props.setProperty(name, System.getProperty(name));
+             }
+         }
 
          indexPath = props.getProperty("index.path", indexPath);
          indexerCPUmultiplier = Double.valueOf( props.getProperty("indexer.cpu.multiplier", String.valueOf(indexerCPUmultiplier) ) );
+         indexerJmx = Boolean.valueOf( props.getProperty("indexer.jmx", String.valueOf(indexerJmx) ).trim() );
+         indexerProfile = props.getProperty("indexer.profile", indexerProfile).trim();
+         indexerBulkMaxSegments = Integer.valueOf( props.getProperty("indexer.bulk.max.segments", String.valueOf(indexerBulkMaxSegments) ).trim() );
+         indexerBulkMergeSegments = Integer.valueOf( props.getProperty("indexer.bulk.merge.segments", String.valueOf(indexerBulkMergeSegments) ).trim() );
+         indexerWorkersAdaptive = Boolean.valueOf( props.getProperty("indexer.workers.adaptive", String.valueOf(indexerWorkersAdaptive) ).trim() );
+         indexerWorkersMin = Integer.valueOf( props.getProperty("indexer.workers.min", String.valueOf(indexerWorkersMin) ).trim() );
+         indexerWorkersMax = Integer.valueOf( props.getProperty("indexer.workers.max", String.valueOf(indexerWorkersMax) ).trim() );
+         indexerWorkersIntervalSeconds = Integer.valueOf( props.getProperty("indexer.workers.interval.seconds", String.valueOf(indexerWorkersIntervalSeconds) ).trim() );
 
          String suffixes = props.getProperty("indexer.filename.suffixes");
          if (suffixes != null){
         	 indexerFilenameSuffixes = suffixes.split(",");
          }
 
+         indexerBatchSize = Integer.valueOf( props.getProperty("indexer.batch.size", String.valueOf(indexerBatchSize) ) );
+         indexerMemoryLimit = Long.valueOf( props.getProperty("indexer.memory.limit", String.valueOf(indexerMemoryLimit) ).trim() );
+         indexerPartitionCount = Integer.valueOf( props.getProperty("indexer.partition.count", String.valueOf(indexerPartitionCount) ) );
+         indexerPartitionMinSize = Long.valueOf( props.getProperty("indexer.partition.min.size", String.valueOf(indexerPartitionMinSize) ) );
+         indexerReader = props.getProperty("indexer.reader", indexerReader).trim();
+         indexerPrefetchFiles = Integer.valueOf( props.getProperty("indexer.prefetch.files", String.valueOf(indexerPrefetchFiles) ) );
+         indexerScheduleGroupSize = Long.valueOf( props.getProperty("indexer.schedule.group.size", String.valueOf(indexerScheduleGroupSize) ).trim() );
+         indexerScheduleGroupFiles = Integer.valueOf( props.getProperty("indexer.schedule.group.files", String.valueOf(indexerScheduleGroupFiles) ).trim() );
+         indexerRingSize = Integer.valueOf( props.getProperty("indexer.ring.size", String.valueOf(indexerRingSize) ).trim() );
+         indexerRingWait = props.getProperty("indexer.ring.wait", indexerRingWait).trim();
+         indexerShards = Integer.valueOf( props.getProperty("indexer.shards", String.valueOf(indexerShards) ).trim() );
+         indexerShardsRoute = props.getProperty("indexer.shards.route", indexerShardsRoute).trim();
+         indexerShardsMerge = Boolean.valueOf( props.getProperty("indexer.shards.merge", String.valueOf(indexerShardsMerge) ).trim() );
+         indexerCoordinatorWorkers = Integer.valueOf( props.getProperty("indexer.coordinator.workers", String.valueOf(indexerCoordinatorWorkers) ).trim() );
+         indexerCoordinatorPort = Integer.valueOf( props.getProperty("indexer.coordinator.port", String.valueOf(indexerCoordinatorPort) ).trim() );
+         indexerCoordinatorAttempts = Integer.valueOf( props.getProperty("indexer.coordinator.attempts", String.valueOf(indexerCoordinatorAttempts) ).trim() );
+         indexerCoordinatorJvmArgs = props.getProperty("indexer.coordinator.jvm.args", indexerCoordinatorJvmArgs).trim();
+         indexerSchemaInfer = Boolean.valueOf( props.getProperty("indexer.schema.infer", String.valueOf(indexerSchemaInfer) ).trim() );
+         String schemaFile = props.getProperty("indexer.schema.file", "").trim();
+         indexerSchemaFile = (schemaFile.isEmpty() ? null : schemaFile);
+         indexerInputEncoding = Charset.forName( props.getProperty("indexer.input.encoding", indexerInputEncoding.name() ) );
+         indexerCommitRecords = Long.valueOf( props.getProperty("indexer.commit.records", String.valueOf(indexerCommitRecords) ).trim() );
+         indexerCommitSeconds = Integer.valueOf( props.getProperty("indexer.commit.seconds", String.valueOf(indexerCommitSeconds) ).trim() );
+         indexerFollowPollMillis = Long.valueOf( props.getProperty("indexer.follow.poll.millis", String.valueOf(indexerFollowPollMillis) ).trim() );
+         indexerFollowCommitMillis = Long.valueOf( props.getProperty("indexer.follow.commit.millis", String.valueOf(indexerFollowCommitMillis) ).trim() );
+         indexerWatchSettleMillis = Long.valueOf( props.getProperty("indexer.watch.settle.millis", String.valueOf(indexerWatchSettleMillis) ).trim() );
+         String watchDoneDir = props.getProperty("indexer.watch.done.dir", "").trim();
+         indexerWatchDoneDir = (watchDoneDir.isEmpty() ? null : watchDoneDir);
+         indexerOffsetsInterval = Integer.valueOf( props.getProperty("indexer.offsets.interval", String.valueOf(indexerOffsetsInterval) ).trim() );
+
          defaultSearchField = props.getProperty("search.default.field", defaultSearchField);
          String searchOperator = props.getProperty("search.default.operator");
          if (searchOperator.equalsIgnoreCase("AND")){
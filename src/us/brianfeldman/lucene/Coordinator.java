@@ -0,0 +1,439 @@
+/**
+ *
+ */
+package us.brianfeldman.lucene;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+
+import us.brianfeldman.fileformat.csv.CSVPartitioner.Partition;
+
+/**
+ * Coordinator hands the slices of a load, whole files or byte ranges of large files, to worker
+ * processes which each index them into an index of their own, see Indexer -worker.
+ *
+ * Local workers are child JVMs started by the coordinator; workers on other hosts sharing the
+ * file system may connect too. A slice whose worker reports a failure or drops its connection is
+ * handed to a worker again, up to a number of attempts; a local worker which died is restarted
+ * on its own index. A worker commits its index after each slice, tagging the commit with the
+ * slice, and a failing worker drops what it did not commit, so a worker's index holds exactly
+ * the slices it finished.
+ *
+ * The protocol is one line of text per message over a socket:
+ *
+ *   worker        HELLO <index directory>
+ *   coordinator   SCHEMA <schema file of the main index>
+ *   coordinator   SLICE <id> <start> <end> <line> <path>     start -1 for a whole file
+ *   worker        DONE <id> <records>
+ *   worker        FAILED <id> <reason>                       then exits, dropping what it did not commit
+ *   coordinator   QUIT
+ *
+ * @author Brian G. Feldman <bgfeldm@yahoo.com>
+ */
+public class Coordinator {
+	private static final Logger LOG = LoggerFactory.getLogger(Coordinator.class);
+
+	/** Name of the directory of local workers' indexes within an index directory. */
+	public static final String DIRECTORY_NAME = "workers";
+
+	/** Prefix of the commit user data keys of a worker's index marking the slices it finished. */
+	public static final String SLICE_PREFIX = "slice:";
+
+	private final File workersDirectory;
+	private final File schemaFile;
+	private final int workerCount;
+	private final int port;
+	private final int maxAttempts;
+	private final String jvmArgs;
+
+	private final Deque<Slice> pending = new ArrayDeque<Slice>();
+	private final Set<File> indexDirectories = new LinkedHashSet<File>();
+	private final Set<File> failedFiles = new LinkedHashSet<File>();
+	private int sliceCount = 0;
+	private int inFlight = 0;
+	private int doneCount = 0;
+	private int connections = 0;
+	private int runningWorkers = 0;
+	private int restarts = 0;
+
+	/**
+	 * @param workersDirectory		directory of the local workers' indexes.
+	 * @param schemaFile			column types of the main index, which the workers use.
+	 * @param workerCount			number of local worker processes.
+	 * @param port					port workers connect to; 0 for any free port, reachable from this host only.
+	 * @param maxAttempts			times a slice is handed out before its file is given up on.
+	 * @param jvmArgs				arguments of the local workers' JVMs, separated by spaces.
+	 */
+	public Coordinator(final File workersDirectory, final File schemaFile, final int workerCount, final int port, final int maxAttempts, final String jvmArgs){
+		this.workersDirectory = workersDirectory;
+		this.schemaFile = schemaFile;
+		this.workerCount = workerCount;
+		this.port = port;
+		this.maxAttempts = Math.max(1, maxAttempts);
+		this.jvmArgs = jvmArgs;
+	}
+
+	/**
+	 * Hand out the slices until each is indexed or given up on, then tell the workers to quit.
+	 *
+	 * @param slices
+	 * @throws IOException
+	 */
+	public void run(final List<Slice> slices) throws IOException {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		synchronized(this){
+			pending.addAll(slices);
+			sliceCount = slices.size();
+		}
+
+		final ServerSocket server = (port == 0 ? new ServerSocket(0, 50, InetAddress.getLoopbackAddress()) : new ServerSocket(port));
+		LOG.info("Coordinating {} slices on port {}", slices.size(), server.getLocalPort());
+		Thread acceptor = new Thread("coordinator"){
+			@Override
+			public void run(){
+				while(!server.isClosed()){
+					try {
+						new Connection(server.accept()).start();
+					} catch (IOException e) {
+						if (!server.isClosed()){
+							LOG.error("Failed accepting a worker", e);
+						}
+					}
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		List<Thread> monitors = new ArrayList<Thread>(workerCount);
+		for(int w=0; w < workerCount; w++){
+			monitors.add(startWorker(w, server.getLocalPort()));
+		}
+
+		try {
+			synchronized(this){
+				while(!pending.isEmpty() || inFlight > 0){
+					if (workerCount > 0 && runningWorkers == 0 && connections == 0 && inFlight == 0){
+						for(Slice slice : pending){
+							LOG.error("No worker left for slice {} : {}", slice.id, slice.file.getAbsolutePath());
+							failedFiles.add(slice.file);
+						}
+						pending.clear();
+						break;
+					}
+					wait(1000);
+				}
+				notifyAll();  // connections waiting for a slice quit.
+			}
+		} catch (InterruptedException e) {
+			LOG.error("Coordinator Interrupted", e);
+		}
+
+		// Still accepting, so a worker connecting late is told to quit.
+		for(Thread monitor : monitors){
+			try {
+				monitor.join();
+			} catch (InterruptedException e) {
+				LOG.error("Coordinator Interrupted", e);
+			}
+		}
+		server.close();
+		LOG.info("Indexed {} of {} slices; time: {}", doneCount, sliceCount, stopwatch);
+	}
+
+	/**
+	 * Start a local worker process, restarting it on its index when it dies while slices are left.
+	 *
+	 * @param w			number of the worker.
+	 * @param port		port of the coordinator.
+	 * @return thread watching the process.
+	 */
+	private Thread startWorker(final int w, final int port){
+		final File indexDirectory = new File(workersDirectory, "jvm-" + w);
+		final List<String> command = new ArrayList<String>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		if (!jvmArgs.trim().isEmpty()){
+			command.addAll(Arrays.asList(jvmArgs.trim().split("\\s+")));
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(Indexer.class.getName());
+		command.add("-worker");
+		command.add(InetAddress.getLoopbackAddress().getHostAddress() + ":" + port);
+		command.add(indexDirectory.getPath());
+
+		synchronized(this){
+			runningWorkers++;
+		}
+		Thread monitor = new Thread("monitor-" + w){
+			@Override
+			public void run(){
+				try {
+					while(true){
+						Process process = new ProcessBuilder(command).inheritIO().start();
+						int exit = process.waitFor();
+						synchronized(Coordinator.this){
+							if (exit == 0 || (pending.isEmpty() && inFlight == 0) || restarts >= workerCount * maxAttempts){
+								if (exit != 0){
+									LOG.error("Worker jvm-{} exited with {}", w, exit);
+								}
+								return;
+							}
+							restarts++;
+						}
+						LOG.warn("Worker jvm-{} exited with {}; restarting it", w, exit);
+					}
+				} catch (IOException e) {
+					LOG.error("Failed starting worker jvm-{}", w, e);
+				} catch (InterruptedException e) {
+					LOG.error("Worker monitor Interrupted", e);
+				} finally {
+					synchronized(Coordinator.this){
+						runningWorkers--;
+						Coordinator.this.notifyAll();
+					}
+				}
+			}
+		};
+		monitor.start();
+		return monitor;
+	}
+
+	/**
+	 * Take the next slice to hand out, waiting while slices in flight may still come back.
+	 *
+	 * @return slice, or null once every slice is done.
+	 */
+	private synchronized Slice take() throws InterruptedException {
+		while(pending.isEmpty() && inFlight > 0){
+			wait();
+		}
+		Slice slice = pending.poll();
+		if (slice != null){
+			inFlight++;
+		}
+		return slice;
+	}
+
+	private synchronized void done(final Slice slice, final File indexDirectory, final String records){
+		inFlight--;
+		doneCount++;
+		LOG.info("Slice {} done, {} of {}, {} records by {} : {}", slice.id, doneCount, sliceCount, records, indexDirectory.getName(), slice.file.getAbsolutePath());
+		notifyAll();
+	}
+
+	/**
+	 * Hand a slice out again, unless the worker committed it before failing or it has had all its attempts.
+	 */
+	private synchronized void retry(final Slice slice, final File indexDirectory){
+		inFlight--;
+		if (isCommitted(slice, indexDirectory)){
+			doneCount++;
+			LOG.info("Slice {} was committed by {} before it failed", slice.id, indexDirectory.getName());
+		} else if (++slice.attempts >= maxAttempts){
+			LOG.error("Giving up on slice {} after {} attempts : {}", slice.id, slice.attempts, slice.file.getAbsolutePath());
+			failedFiles.add(slice.file);
+		} else {
+			pending.addFirst(slice);
+		}
+		notifyAll();
+	}
+
+	private static boolean isCommitted(final Slice slice, final File indexDirectory){
+		try {
+			Directory directory = NIOFSDirectory.open(indexDirectory);
+			try {
+				if (!DirectoryReader.indexExists(directory)){
+					return false;
+				}
+				List<IndexCommit> commits = DirectoryReader.listCommits(directory);
+				return commits.get(commits.size() - 1).getUserData().containsKey(SLICE_PREFIX + slice.id);
+			} finally {
+				directory.close();
+			}
+		} catch (IOException e) {
+			LOG.warn("Can not read the commits of {}", indexDirectory, e);
+			return false;
+		}
+	}
+
+	/**
+	 * @return index directories of the workers which connected.
+	 */
+	public synchronized Set<File> getIndexDirectories(){
+		return new LinkedHashSet<File>(indexDirectories);
+	}
+
+	/**
+	 * @return files with a slice given up on; their records are incomplete.
+	 */
+	public synchronized Set<File> getFailedFiles(){
+		return new LinkedHashSet<File>(failedFiles);
+	}
+
+	/**
+	 * Talks to one worker over its socket.
+	 */
+	private class Connection extends Thread {
+		private final Socket socket;
+
+		Connection(final Socket socket){
+			super("connection-" + socket.getPort());
+			this.socket = socket;
+		}
+
+		@Override
+		public void run(){
+			synchronized(Coordinator.this){
+				connections++;
+			}
+			File indexDirectory = null;
+			Slice slice = null;
+			try {
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+				PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+
+				String hello = in.readLine();
+				if (hello == null || !hello.startsWith("HELLO ")){
+					LOG.warn("Not a worker: {}", socket.getRemoteSocketAddress());
+					return;
+				}
+				indexDirectory = new File(hello.substring(6)).getAbsoluteFile();
+				synchronized(Coordinator.this){
+					indexDirectories.add(indexDirectory);
+				}
+				LOG.info("Worker {} connected from {}", indexDirectory.getName(), socket.getRemoteSocketAddress());
+				out.println("SCHEMA " + schemaFile.getAbsolutePath());
+
+				while((slice = take()) != null){
+					out.println("SLICE " + slice);
+					String reply = in.readLine();
+					if (reply == null || !reply.startsWith("DONE ")){
+						LOG.warn("Worker {} failed slice {} : {}", indexDirectory.getName(), slice.id, (reply != null ? reply : "connection lost"));
+						break;
+					}
+					done(slice, indexDirectory, reply.split(" ")[2]);
+				}
+				if (slice == null){
+					out.println("QUIT");
+				}
+			} catch (IOException e) {
+				LOG.warn("Lost worker {}", (indexDirectory != null ? indexDirectory.getName() : socket.getRemoteSocketAddress()), e);
+			} catch (InterruptedException e) {
+				LOG.error("Connection Interrupted", e);
+			} finally {
+				if (slice != null){
+					retry(slice, indexDirectory);
+				}
+				try {
+					socket.close();
+				} catch (IOException e) {
+					LOG.debug("Failed closing socket", e);
+				}
+				synchronized(Coordinator.this){
+					connections--;
+					Coordinator.this.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * A part of the load handed to a worker: a whole file, or a byte range of one.
+	 */
+	public static class Slice {
+		private final int id;
+		private final File file;
+		private final long start;
+		private final long end;
+		private final int lineNumber;
+		private int attempts = 0;
+
+		/**
+		 * @param id
+		 * @param file		whole file.
+		 */
+		public Slice(final int id, final File file){
+			this(id, file, -1, -1, 0);
+		}
+
+		/**
+		 * @param id
+		 * @param partition		byte range of a file.
+		 */
+		public Slice(final int id, final Partition partition){
+			this(id, partition.getFile(), partition.getStart(), partition.getEnd(), partition.getLineNumber());
+		}
+
+		private Slice(final int id, final File file, final long start, final long end, final int lineNumber){
+			this.id = id;
+			this.file = file.getAbsoluteFile();
+			this.start = start;
+			this.end = end;
+			this.lineNumber = lineNumber;
+		}
+
+		/**
+		 * Parse a slice as sent to a worker.
+		 *
+		 * @param line		id start end line path
+		 * @return slice
+		 */
+		public static Slice parse(final String line){
+			String[] values = line.split(" ", 5);
+			return new Slice(Integer.parseInt(values[0]), new File(values[4]), Long.parseLong(values[1]), Long.parseLong(values[2]), Integer.parseInt(values[3]));
+		}
+
+		public int getId(){ return id; }
+
+		public File getFile(){ return file; }
+
+		/**
+		 * @return whether the slice is a byte range rather than a whole file.
+		 */
+		public boolean isRanged(){ return start >= 0; }
+
+		public long getStart(){ return start; }
+
+		public long getEnd(){ return end; }
+
+		public int getLineNumber(){ return lineNumber; }
+
+		/**
+		 * @return bytes of the slice.
+		 */
+		public long size(){
+			return (isRanged() ? end - start : file.length());
+		}
+
+		@Override
+		public String toString(){
+			return id + " " + start + " " + end + " " + lineNumber + " " + file.getAbsolutePath();
+		}
+	}
+
+}
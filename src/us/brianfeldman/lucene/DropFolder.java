@@ -0,0 +1,168 @@
+/**
+ *
+ */
+package us.brianfeldman.lucene;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * DropFolder watches a directory tree for csv files dropped into it.
+ *
+ * A file is handed over once it has settled, its size and last modified time unchanged for a
+ * while, so a file still being copied in is never read half written. Files already in the tree
+ * when watching starts come first. Directories created within the tree are watched too, and
+ * when the watch service loses events the whole tree is listed again.
+ *
+ * @author Brian G. Feldman <bgfeldm@yahoo.com>
+ */
+public class DropFolder implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(DropFolder.class);
+
+	private final Path root;
+	private final Path excluded;
+	private final String[] suffixes;
+	private final long settleMillis;
+	private final WatchService watchService;
+	private final Map<File, long[]> pending = new LinkedHashMap<File, long[]>();  // size, last modified, time seen so.
+
+	/**
+	 * @param root			directory tree to watch.
+	 * @param excluded		directory within the tree not to watch, such as the one done files are moved to; may be null.
+	 * @param suffixes		file name suffixes of csv files.
+	 * @param settleMillis	milliseconds a file must stay unchanged before it is handed over.
+	 * @throws IOException
+	 */
+	public DropFolder(final File root, final File excluded, final String[] suffixes, final long settleMillis) throws IOException {
+		this.root = root.getAbsoluteFile().toPath().normalize();
+		this.excluded = (excluded != null ? excluded.getAbsoluteFile().toPath().normalize() : null);
+		this.suffixes = suffixes;
+		this.settleMillis = settleMillis;
+		this.watchService = FileSystems.getDefault().newWatchService();
+		register(this.root);
+	}
+
+	/**
+	 * Watch a directory and the directories below it, offering the files found in them.
+	 */
+	private void register(final Path directory) throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>(){
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (dir.equals(excluded)){
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs){
+				offer(file.toFile());
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e){
+				LOG.warn("Can not watch {}", file, e);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void offer(final File file){
+		for(String suffix : suffixes){
+			if (file.getName().endsWith("." + suffix)){
+				if (!pending.containsKey(file)){
+					pending.put(file, new long[]{file.length(), file.lastModified(), System.currentTimeMillis()});
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Wait for files to land, returning those which have settled.
+	 *
+	 * @param timeoutMillis		longest wait for a change in the tree.
+	 * @return settled files, possibly none.
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public List<File> take(final long timeoutMillis) throws InterruptedException, IOException {
+		WatchKey key = watchService.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+		while(key != null){
+			Path directory = (Path) key.watchable();
+			for(WatchEvent<?> event : key.pollEvents()){
+				if (event.kind() == OVERFLOW){
+					LOG.warn("Missed changes; listing {} again", root);
+					register(root);
+					continue;
+				}
+				Path path = directory.resolve((Path) event.context());
+				if (Files.isDirectory(path)){
+					if (event.kind() == ENTRY_CREATE){
+						register(path);
+					}
+				} else if (event.kind() != ENTRY_DELETE){
+					offer(path.toFile());
+				}
+			}
+			key.reset();
+			key = watchService.poll();
+		}
+		return settled();
+	}
+
+	private List<File> settled(){
+		List<File> settled = new ArrayList<File>();
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<File, long[]>> entries = pending.entrySet().iterator();
+		while(entries.hasNext()){
+			Map.Entry<File, long[]> entry = entries.next();
+			File file = entry.getKey();
+			long[] seen = entry.getValue();
+			if (!file.exists()){
+				entries.remove();
+			} else if (file.length() != seen[0] || file.lastModified() != seen[1]){
+				seen[0] = file.length();
+				seen[1] = file.lastModified();
+				seen[2] = now;
+			} else if (now - seen[2] >= settleMillis){
+				settled.add(file);
+				entries.remove();
+			}
+		}
+		return settled;
+	}
+
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+
+}
@@ -0,0 +1,132 @@
+/**
+ *
+ */
+package us.brianfeldman.lucene;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * FileScheduler hands out the files of a load largest first, with small files in groups.
+ *
+ * A large file taken last runs on alone while the other reader threads sit idle, so the largest
+ * files go first and the small ones fill in at the end. Files smaller than the group size are
+ * handed out together, up to the group size in bytes and a number of files, so a reader thread
+ * takes thousands of tiny files in a few turns instead of one by one.
+ *
+ * Given a collection, every file is sized up front. Given a FileWalker, files are ordered among
+ * those found so far, as many as the capacity, so listing and indexing still run together.
+ * Not thread safe; callers taking groups from several threads must synchronize.
+ *
+ * @author Brian G. Feldman <bgfeldm@yahoo.com>
+ */
+public class FileScheduler implements Iterator<List<File>> {
+
+	private final FileWalker walker;  // null when every file is known up front.
+	private final long groupSize;
+	private final int groupFiles;
+	private final int capacity;
+	private final PriorityQueue<SizedFile> pending;
+
+	/**
+	 * @param files			files of the load.
+	 * @param groupSize		size in bytes below which files are grouped, and the most bytes in a group.
+	 * @param groupFiles	most files in a group.
+	 */
+	public FileScheduler(final Collection<File> files, final long groupSize, final int groupFiles){
+		this(null, groupSize, groupFiles, Math.max(1, files.size()));
+		for(File file : files){
+			pending.add(new SizedFile(file));
+		}
+	}
+
+	/**
+	 * @param walker		files of the load as they are found.
+	 * @param groupSize		size in bytes below which files are grouped, and the most bytes in a group.
+	 * @param groupFiles	most files in a group.
+	 * @param capacity		most files found and waiting to be ordered.
+	 */
+	public FileScheduler(final FileWalker walker, final long groupSize, final int groupFiles, final int capacity){
+		this.walker = walker;
+		this.groupSize = groupSize;
+		this.groupFiles = Math.max(1, groupFiles);
+		this.capacity = capacity;
+		this.pending = new PriorityQueue<SizedFile>(capacity, new Comparator<SizedFile>(){
+			@Override
+			public int compare(SizedFile a, SizedFile b){
+				return Long.compare(b.size, a.size);  // largest first.
+			}
+		});
+	}
+
+	/**
+	 * Take in the files found since last asked, waiting for one only when none is pending.
+	 */
+	private void fill(){
+		if (walker == null){
+			return;
+		}
+		if (pending.isEmpty() && walker.hasNext()){
+			pending.add(new SizedFile(walker.next()));
+		}
+		File file;
+		while(pending.size() < capacity && (file = walker.poll()) != null){
+			pending.add(new SizedFile(file));
+		}
+	}
+
+	/**
+	 * Wait for the next group of files.
+	 *
+	 * @return false once every file is handed out.
+	 */
+	@Override
+	public boolean hasNext(){
+		fill();
+		return !pending.isEmpty();
+	}
+
+	/**
+	 * @return the largest file pending, or pending small files up to the group size.
+	 */
+	@Override
+	public List<File> next(){
+		if (!hasNext()){
+			throw new NoSuchElementException();
+		}
+		List<File> group = new ArrayList<File>(1);
+		SizedFile first = pending.poll();
+		group.add(first.file);
+		long bytes = first.size;
+		if (first.size < groupSize){
+			while(group.size() < groupFiles && !pending.isEmpty() && bytes + pending.peek().size <= groupSize){
+				SizedFile small = pending.poll();
+				group.add(small.file);
+				bytes += small.size;
+			}
+		}
+		return group;
+	}
+
+	@Override
+	public void remove(){
+		throw new UnsupportedOperationException();
+	}
+
+	private static class SizedFile {
+		private final File file;
+		private final long size;
+
+		SizedFile(final File file){
+			this.file = file;
+			this.size = file.length();
+		}
+	}
+
+}
@@ -0,0 +1,188 @@
+/**
+ *
+ */
+package us.brianfeldman.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * FileWalker lists the csv files of a directory tree on a background thread, handing them out as they are found.
+ *
+ * Indexing starts with the first file found instead of after the whole tree is listed, and only a bounded
+ * number of found files wait to be taken, so memory stays flat however many files the tree holds.
+ * Symbolic links to files and directories are followed, as FileUtils.listFiles() did; a link looping back
+ * up the tree is logged and skipped.
+ * Not thread safe; callers taking files from several threads must synchronize, as Indexer.nextFiles() does.
+ *
+ * @author Brian G. Feldman <bgfeldm@yahoo.com>
+ */
+public class FileWalker implements Iterator<File> {
+	private static final Logger LOG = LoggerFactory.getLogger(FileWalker.class);
+
+	private static final File END = new File("");  // queued once the walk is over.
+
+	private final Path root;
+	private final String[] suffixes;
+	private final BlockingQueue<File> found;
+	private File next;
+	private boolean ended = false;
+	private int count = 0;
+
+	/**
+	 * @param root			directory tree to list.
+	 * @param suffixes		file name suffixes of csv files.
+	 * @param capacity		most files found and waiting to be taken.
+	 */
+	public FileWalker(final File root, final String[] suffixes, final int capacity){
+		this.root = root.toPath();
+		this.suffixes = suffixes;
+		this.found = new ArrayBlockingQueue<File>(capacity);
+	}
+
+	/**
+	 * Start listing in the background.
+	 */
+	public void start(){
+		Thread thread = new Thread("file-walker"){
+			@Override
+			public void run(){
+				try {
+					walk();
+				} catch (IOException e) {
+					LOG.error("Failed listing {}", root, e);
+				} catch (InterruptedException e) {
+					LOG.error("File walker Interrupted", e);
+				} finally {
+					try {
+						found.put(END);
+					} catch (InterruptedException e) {
+						LOG.error("File walker Interrupted", e);
+					}
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void walk() throws IOException, InterruptedException {
+		final InterruptedException[] interrupted = new InterruptedException[1];
+		Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>(){
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs){
+				String name = file.getFileName().toString();
+				for(String suffix : suffixes){
+					if (attrs.isRegularFile() && name.endsWith("." + suffix)){
+						try {
+							found.put(file.toFile());  // waits while the readers are behind.
+						} catch (InterruptedException e) {
+							interrupted[0] = e;
+							return FileVisitResult.TERMINATE;
+						}
+						break;
+					}
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e){
+				LOG.warn("Can not list {}", file, e);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		if (interrupted[0] != null){
+			throw interrupted[0];
+		}
+	}
+
+	/**
+	 * Wait for the next file to be found.
+	 *
+	 * @return false once the walk is over and every file found was taken.
+	 */
+	@Override
+	public boolean hasNext(){
+		if (next != null){
+			return true;
+		}
+		if (ended){
+			return false;
+		}
+		try {
+			next = found.take();
+		} catch (InterruptedException e) {
+			LOG.error("Waiting for files Interrupted", e);
+			Thread.currentThread().interrupt();
+			ended = true;
+			return false;
+		}
+		if (next == END){
+			next = null;
+			ended = true;
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public File next(){
+		if (!hasNext()){
+			throw new NoSuchElementException();
+		}
+		File file = next;
+		next = null;
+		count++;
+		return file;
+	}
+
+	/**
+	 * Take the next file found, without waiting for one.
+	 *
+	 * @return file, or null when none is waiting.
+	 */
+	public File poll(){
+		if (next == null && !ended){
+			next = found.poll();
+			if (next == END){
+				next = null;
+				ended = true;
+			}
+		}
+		if (next == null){
+			return null;
+		}
+		File file = next;
+		next = null;
+		count++;
+		return file;
+	}
+
+	@Override
+	public void remove(){
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * @return files taken so far.
+	 */
+	public int getCount(){
+		return count;
+	}
+
+}
@@ -0,0 +1,137 @@
+/**
+ *
+ */
+package us.brianfeldman.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.NIOFSDirectory;
+
+import com.google.common.base.Stopwatch;
+
+import us.brianfeldman.fileformat.csv.SamplingReaderFactory;
+
+/**
+ * IndexFailureCheck checks that a load whose writer runs out of memory fails, rather than
+ * committing progress past records which were never indexed.
+ *
+ * Files are indexed into a new index through an analyzer which throws OutOfMemoryError part way
+ * through; the load must then end in an IOException caused by that error, rather than by a later
+ * write to the writer Lucene closes after it, and the index must hold no records nor progress.
+ * A single worker thread indexes, so no other write can fail first.
+ *
+ * @author Brian G. Feldman <bgfeldm@yahoo.com>
+ */
+public class IndexFailureCheck {
+
+	private static final long FAIL_AT_TOKEN = 100;  // tokens analyzed before the writer runs out of memory.
+
+	private static final AtomicLong tokens = new AtomicLong();
+
+	/**
+	 * Main method used for testing.
+	 *
+	 * @param args	csv file or directory of csv files, then the index directory, deleted first.
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		File indexDirectory = new File(args[1]);
+		FileUtils.deleteDirectory(indexDirectory);
+		System.setProperty("index.path", indexDirectory.getPath());
+		System.setProperty("indexer.jmx", "false");
+		System.setProperty("indexer.workers.min", "1");
+		System.setProperty("indexer.workers.max", "1");
+		Configuration config = Configuration.getInstance();
+		config.load();
+
+		IndexWriterConfig iwc = new IndexWriterConfig(config.getLuceneVersion(), new FailingAnalyzer(config.getAnalyzer()));
+		iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+		SamplingReaderFactory factory = new SamplingReaderFactory();
+		factory.setCharset(config.getIndexerInputEncoding());
+		Indexer indexer = new Indexer(factory, iwc);
+
+		String failure = null;
+		try {
+			indexer.index(args[0]);
+			indexer.closeWriter();
+			failure = "the load completed";
+		} catch (IOException e) {
+			if (isWriteFailure(e.getCause())){
+				System.out.println("load failed as expected: " + e.getMessage());
+			} else {
+				failure = "the load failed for another reason: " + e.getCause();
+			}
+		}
+
+		Directory directory = NIOFSDirectory.open(indexDirectory);
+		if (failure == null && DirectoryReader.indexExists(directory)){
+			DirectoryReader reader = DirectoryReader.open(directory);
+			Map<String, String> commitData = reader.getIndexCommit().getUserData();
+			if (reader.numDocs() > 0){
+				failure = "records were committed: " + reader.numDocs();
+			} else if (!commitData.isEmpty()){
+				failure = "progress was committed: " + commitData.keySet();
+			}
+			reader.close();
+		}
+		directory.close();
+
+		stopwatch.stop();
+		System.out.println("tokens: " + tokens.get() + " failures: " + (failure != null ? 1 : 0) + " time: " + stopwatch);
+		if (failure != null){
+			System.out.println("FAIL " + failure);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @param failure	first failure of the load.
+	 * @return whether it is the write which ran out of memory, rather than a later write to a closed writer.
+	 */
+	private static boolean isWriteFailure(final Throwable failure){
+		return (failure instanceof IOException && failure.getCause() instanceof OutOfMemoryError);
+	}
+
+	/**
+	 * Analyzes like the analyzer it wraps, until FAIL_AT_TOKEN tokens have been analyzed on all threads.
+	 */
+	private static class FailingAnalyzer extends AnalyzerWrapper {
+		private final Analyzer analyzer;
+
+		FailingAnalyzer(final Analyzer analyzer){
+			super(analyzer.getReuseStrategy());
+			this.analyzer = analyzer;
+		}
+
+		@Override
+		protected Analyzer getWrappedAnalyzer(String fieldName){
+			return analyzer;
+		}
+
+		@Override
+		protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components){
+			return new TokenStreamComponents(components.getTokenizer(), new TokenFilter(components.getTokenStream()){
+				@Override
+				public boolean incrementToken() throws IOException {
+					if (tokens.incrementAndGet() == FAIL_AT_TOKEN){
+						throw new OutOfMemoryError("Simulated by IndexFailureCheck");
+					}
+					return input.incrementToken();
+				}
+			});
+		}
+	}
+
+}
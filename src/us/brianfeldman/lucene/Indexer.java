@@ -5,23 +5,36 @@ import org.slf4j.LoggerFactory;
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.PropertyConfigurator;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.LinkedTransferQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TransferQueue;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.MergePolicy;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.NIOFSDirectory;
@@ -29,11 +42,20 @@ import org.apache.lucene.util.Version;
 
 import com.google.common.base.Stopwatch;
 
+import us.brianfeldman.fileformat.csv.CSVInput;
+import us.brianfeldman.fileformat.csv.CSVPartitioner;
+import us.brianfeldman.fileformat.csv.CSVPartitioner.Partition;
 import us.brianfeldman.fileformat.csv.JCSVReader;
 import us.brianfeldman.fileformat.csv.JavaCSVReader;
+import us.brianfeldman.fileformat.csv.MappedCSVReader;
 import us.brianfeldman.fileformat.csv.OpenCSVReader;
+import us.brianfeldman.fileformat.csv.RecordOffsets;
+import us.brianfeldman.fileformat.csv.RecordReadException;
 import us.brianfeldman.fileformat.csv.SuperCSVReader;
 import us.brianfeldman.fileformat.csv.RecordIterator;
+import us.brianfeldman.fileformat.csv.RecordIteratorFactory;
+import us.brianfeldman.fileformat.csv.SamplingReaderFactory;
+import us.brianfeldman.fileformat.csv.SimpleCSVReader;
 
 /**
  * Lucene Indexer, multi-threaded on Record.
@@ -47,33 +69,77 @@ public class Indexer {
 	private static final Configuration config = Configuration.getInstance();
 	
 	private static final int CPU_PROCESSORS = Runtime.getRuntime().availableProcessors();
+	private static final long FORCE_MERGE_PROGRESS_MILLIS = 10000;  // between progress lines of the final merge.
+	private static final int SCHEMA_SAMPLE_SIZE = 1000;  // records sampled per file to infer column types.
+	private static final int WALKER_CAPACITY = 1024;  // files listed ahead of the readers.
 	private IndexWriter writer;
-	private final RecordIterator csvReader;
+	private Shards shards;  // independent writers records are routed to, or null to write them all to the writer.
+	private Schema schema;
+	private File offsetsDirectory;  // record offset sidecars of the files indexed.
+	private Checkpoint checkpoint;
+	private Manifest manifest;  // files indexed so far, to index only files changed since.
+	private final RecordIteratorFactory readerFactory;
 
 	private final String startTime = String.valueOf(System.currentTimeMillis() / 1000l);
 
-	//private BlockingQueue<Runnable> recordQueue;   // Record represents a line from a CSV file.
-	private TransferQueue<Runnable> recordQueue;
+	private RecordRing ring;  // slots of records handed from the readers to the worker threads.
+	private WorkerController workerController;  // number of worker threads taking slots.
+	private MemoryBudget memoryBudget;  // bytes of records queued and buffered by the writers.
+	private IndexingStats stats;  // metrics published over JMX.
 	
 	private int doneFileCount = 0;
 	private int totalFileCount = 0;
 
-	public Indexer(RecordIterator csvReader){
-		this.csvReader = csvReader;
+	/**
+	 * Read every file with the same parser and settings.
+	 * 
+	 * @param csvReader		reader whose settings are copied for each file.
+	 */
+	public Indexer(final RecordIterator csvReader){
+		csvReader.setCharset(config.getIndexerInputEncoding());
+		this.readerFactory = new RecordIteratorFactory(){
+			@Override
+			public RecordIterator newReader(File file){
+				return csvReader.newReader();
+			}
+		};
+		openWriter();
+	}
+
+	/**
+	 * Choose the parser and its settings for each file.
+	 * 
+	 * @param readerFactory
+	 */
+	public Indexer(final RecordIteratorFactory readerFactory){
+		this.readerFactory = readerFactory;
 		openWriter();
 	}
 
+	/**
+	 * Choose the parser for each file, and write with other writer settings; see IndexFailureCheck.
+	 * 
+	 * @param readerFactory
+	 * @param iwc			settings of the main index writer.
+	 */
+	Indexer(final RecordIteratorFactory readerFactory, final IndexWriterConfig iwc){
+		this.readerFactory = readerFactory;
+		openWriter(iwc);
+	}
+
 	/**
 	 * Open Lucene Index Writer.
 	 * 
 	 * @throws IOException
 	 */
 	public void openWriter() {
+		openWriter(config.getIndexWriterConfig());
+	}
+
+	private void openWriter(final IndexWriterConfig iwc) {
 		File indexPathFile = new File( config.getIndexPath() );
 		LOG.info("Opening index writer at: "+indexPathFile.getAbsolutePath());
 
-		IndexWriterConfig iwc = config.getIndexWriterConfig();
-
 		try {
 			Directory directory = NIOFSDirectory.open(indexPathFile);
 			if ( IndexWriter.isLocked(directory) ){
@@ -85,6 +151,37 @@ public class Indexer {
 			LOG.error("Failed to open index writer", e);
 		}
 
+		try {
+			schema = Schema.load(indexPathFile);
+			schema.setInfer(config.isIndexerSchemaInfer());
+			if (config.getIndexerSchemaFile() != null){
+				schema.loadOverrides(new File(config.getIndexerSchemaFile()));
+			}
+		} catch (IOException e) {
+			LOG.error("Failed to load column schema", e);
+			schema = new Schema();
+		}
+
+		Map<String, String> commitData = (writer != null ? writer.getCommitData() : new HashMap<String, String>());
+		int shardCount = Math.max(config.getIndexerShards() > 1 ? config.getIndexerShards() : 0, Shards.count(commitData));
+		if (writer != null && shardCount > 0){
+			try {
+				shards = new Shards(indexPathFile, shardCount, config.getIndexerShardsRoute(), commitData, config);
+			} catch (IOException e) {
+				LOG.error("Failed to open index shards", e);
+			}
+		}
+
+		offsetsDirectory = new File(indexPathFile, RecordOffsets.DIRECTORY_NAME);
+		manifest = new Manifest(commitData);
+		checkpoint = new Checkpoint(writer, schema, manifest, shards, indexPathFile, config.getIndexerCommitRecords(), config.getIndexerCommitSeconds());
+
+		if (writer != null){
+			stats = new IndexingStats(writer, shards);
+			if (config.isIndexerJmx()){
+				stats.register(indexPathFile.getAbsolutePath());
+			}
+		}
 	}
 
 
@@ -92,12 +189,37 @@ public class Indexer {
 	 * Close Lucene Index Writer
 	 * 
 	 * Commits all changes to an index, waits for pending merges to complete, and closes all associated files.
+	 * When records failed to be indexed, the changes since the last commit are rolled back instead.
 	 * 
-	 * @throws IOException
+	 * @throws IOException when records failed to be indexed.
 	 */
 	public void closeWriter() throws IOException{
 		LOG.info("Closing index writer");
+		schema.store(new File( config.getIndexPath() ));
+		schema.logUnparsed();
 		if (writer != null){
+			checkpoint.commit(true);  // the load is complete; nothing to resume.
+			if (checkpoint.isFailed()){
+				LOG.error("Rolling back to the last commit, since records failed to be indexed");
+				stats.unregister();
+				if (shards != null){
+					shards.rollback();
+				}
+				writer.rollback();
+				checkpoint.checkFailure();
+			}
+			if (shards != null){
+				stats.detachShards();
+				if (config.isIndexerShardsMerge()){
+					shards.mergeInto(writer);
+				} else {
+					shards.close();  // searched along with the index.
+				}
+			}
+			if (config.isIndexerProfileBulk() && config.getIndexerBulkMergeSegments() > 0){
+				forceMerge(config.getIndexerBulkMergeSegments());
+			}
+			stats.unregister();
 			try{
 				writer.close();
 			} catch(OutOfMemoryError e){
@@ -107,6 +229,37 @@ public class Indexer {
 		}
 	}
 
+	/**
+	 * Merge the index down to a number of segments, logging progress while the merges run, then commit.
+	 * 
+	 * @param maxSegments
+	 * @throws IOException
+	 */
+	private void forceMerge(final int maxSegments) throws IOException{
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		LOG.info("Merging the index into {} segments", maxSegments);
+		writer.forceMerge(maxSegments, false);
+		MergePolicy mergePolicy = writer.getConfig().getMergePolicy();
+		long lastProgress = System.currentTimeMillis();
+		while(writer.hasPendingMerges() || !writer.getMergingSegments().isEmpty()){
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				LOG.error("Force merge Interrupted", e);
+				break;
+			}
+			if (System.currentTimeMillis() - lastProgress < FORCE_MERGE_PROGRESS_MILLIS){
+				continue;
+			}
+			lastProgress = System.currentTimeMillis();
+			LOG.info("Merging: {} segments being merged, {} segments; time: {}", writer.getMergingSegments().size(),
+					(mergePolicy instanceof BulkMergePolicy ? String.valueOf(((BulkMergePolicy) mergePolicy).getSegmentCount()) : "?"), stopwatch);
+		}
+		writer.forceMerge(maxSegments);  // waits for any merge left, and throws when one failed.
+		writer.commit();
+		LOG.info("Merged the index into {} segments; time: {}", maxSegments, stopwatch);
+	}
+
 	/**
 	 * Get Start Time.
 	 * @return
@@ -120,19 +273,58 @@ public class Indexer {
 	 * @throws IOException 
 	 */
 	public void index(String directory) throws IOException{
-		String[] fileNameSuffixes = config.getIndexFilenameSuffixes();
+		File indexDirFile = new File( directory );
+		if (!indexDirFile.isDirectory()){
+			this.index( listFiles(directory) );
+			return;
+		}
+
+		// Files are listed while they are indexed, rather than the whole tree up front.
+		LOG.info("Indexing files of {}", indexDirFile.getAbsolutePath());
+		FileWalker walker = new FileWalker(indexDirFile, fileNameSuffixes(), WALKER_CAPACITY);
+		walker.start();
+
+		final int prefetchFiles = Math.max(1, config.getIndexerPrefetchFiles());
+		List<Thread> workers = startWorkers(prefetchFiles * config.getIndexerPartitionCount());
+
+		readFiles(new FileScheduler(walker, config.getIndexerScheduleGroupSize(), config.getIndexerScheduleGroupFiles(), WALKER_CAPACITY), -1);
+
+		stopWorkers(workers);
+		LOG.info("Indexed files; file count: {}", walker.getCount());
+	}
 
+	/**
+	 * List the CSV files of a directory, or the single file given.
+	 * 
+	 * @param directory as String
+	 * @return files
+	 */
+	private static Collection<File> listFiles(String directory){
 		File indexDirFile = new File( directory );
 
 		Collection<File> files;
 		if (indexDirFile.isDirectory()){
-			files = FileUtils.listFiles(indexDirFile, fileNameSuffixes, true);
+			files = FileUtils.listFiles(indexDirFile, fileNameSuffixes(), true);
 		} else {
 			files = new ArrayList<File>();
 			files.add(indexDirFile);
 		}
-		
-		this.index( files );
+		return files;
+	}
+
+	/**
+	 * @return file name suffixes of the files indexed.
+	 */
+	private static String[] fileNameSuffixes(){
+		String[] suffixes = config.getIndexFilenameSuffixes();
+
+		// gzip compressed files are picked up as well, e.g. data.csv.gz
+		String[] fileNameSuffixes = new String[suffixes.length * 2];
+		for(int i=0; i < suffixes.length; i++){
+			fileNameSuffixes[i*2] = suffixes[i];
+			fileNameSuffixes[i*2+1] = suffixes[i] + ".gz";
+		}
+		return fileNameSuffixes;
 	}
 	
 	
@@ -146,81 +338,1022 @@ public class Indexer {
 	public void index(final Collection<File> files) throws IOException{
 		LOG.info("Indexing files; file count: {}", files.size());
 		
-		final int maxThreads = (int) (CPU_PROCESSORS * config.getIndexerCpuMultiplier());
+		final int prefetchFiles = Math.max(1, config.getIndexerPrefetchFiles());
+		List<Thread> workers = startWorkers(prefetchFiles * config.getIndexerPartitionCount());
+
+		readFiles(new FileScheduler(files, config.getIndexerScheduleGroupSize(), config.getIndexerScheduleGroupFiles()), files.size());
+
+		stopWorkers(workers);
+	}
+
+	/**
+	 * Read files on the reader threads and queue their records for the running worker threads.
+	 * 
+	 * @param scheduler		files to read, largest first, possibly still being listed.
+	 * @param fileCount		number of files, or -1 when not yet known.
+	 */
+	private void readFiles(final FileScheduler scheduler, final int fileCount){
+		final int prefetchFiles = Math.max(1, config.getIndexerPrefetchFiles());
+		totalFileCount = fileCount;
+		doneFileCount = 0;
+		if (checkpoint.isResuming()){
+			LOG.info("Resuming the load interrupted after the last commit");
+		}
+
+		// Several files are read at once, so while one file's tail is being read the next file is
+		// already being opened and parsed; all feed the same queue of records for the worker threads.
+		List<Thread> readerThreads = new ArrayList<Thread>(prefetchFiles);
+		for(int t=0; t < prefetchFiles; t++){
+			Thread thread = new Thread("reader-" + t){
+				@Override
+				public void run(){
+					List<File> files;
+					while(!checkpoint.isFailed() && (files = nextFiles(scheduler)) != null){
+						for(File file : files){
+							try {
+								indexFile(file);
+							} catch (IOException e) {
+								LOG.error("Failed reading file {}", file.getAbsolutePath(), e);
+							}
+						}
+					}
+				}
+			};
+			thread.start();
+			readerThreads.add(thread);
+		}
+
+		for(Thread thread : readerThreads){
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				LOG.error("File reader Interrupted", e);
+			}
+		}
+	}
+
+	/**
+	 * Start the worker threads which build and add the documents of queued records.
+	 * 
+	 * CPU_PROCESSORS * indexer.cpu.multiplier workers take records at first; with indexer.workers.adaptive
+	 * the WorkerController then adjusts their number from the measured throughput.
+	 * 
+	 * @param readers	number of threads reading records at once.
+	 * @return worker threads
+	 */
+	private List<Thread> startWorkers(final int readers){
+		final int initialThreads = Math.max(1, (int) (CPU_PROCESSORS * config.getIndexerCpuMultiplier()));
+		final int maxThreads = (config.isIndexerWorkersAdaptive()
+				? (config.getIndexerWorkersMax() > 0 ? config.getIndexerWorkersMax() : Math.max(initialThreads, CPU_PROCESSORS * 4))
+				: initialThreads);
 		LOG.debug("maxthreads: {}", maxThreads);
 
-		recordQueue = new LinkedTransferQueue<Runnable>();
-		
-		ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 1, TimeUnit.MINUTES, recordQueue, new ThreadPoolExecutor.CallerRunsPolicy() );
-		executor.prestartAllCoreThreads();
+		// Enough slots for a few batches queued per worker besides the ones being indexed and filled.
+		int ringSize = (config.getIndexerRingSize() > 0 ? config.getIndexerRingSize() : maxThreads*4 + readers);
+		ring = new RecordRing(ringSize, config.getIndexerBatchSize(), RecordRing.WaitStrategy.forName(config.getIndexerRingWait()));
+		LOG.debug("ring slots: {}", ring.size());
 
-		Iterator<File> fileIterator = files.iterator();
-		totalFileCount = files.size();
-		
-		for(doneFileCount=1; fileIterator.hasNext(); doneFileCount++){
-			File file = fileIterator.next();
-			LOG.info("Indexing file {} of {} : {}", doneFileCount, totalFileCount, file.getAbsolutePath());
+		// Readers wait while queued records and the writers' buffers exceed the budget, and a batch of
+		// wide records is handed over early, so the slots' buffers stay within half of it.
+		long memoryLimit = (config.getIndexerMemoryLimit() > 0 ? config.getIndexerMemoryLimit() : Runtime.getRuntime().maxMemory() / 2);
+		memoryBudget = new MemoryBudget(memoryLimit, writer, shards);
+		for(int s=0; s < ring.size(); s++){
+			ring.get(s).getBatch().setMaxBytes(memoryLimit / 2 / ring.size());
+		}
+		LOG.debug("memory limit: {} MB", memoryLimit / 1024 / 1024);
+
+		final WorkerController controller = new WorkerController(ring, initialThreads,
+				(config.isIndexerWorkersAdaptive() ? config.getIndexerWorkersMin() : initialThreads), maxThreads, config.getIndexerWorkersIntervalSeconds());
+		workerController = controller;
+		stats.setPipeline(ring, controller, memoryBudget);
+		List<Thread> workers = new ArrayList<Thread>(maxThreads);
+		for(int t=0; t < maxThreads; t++){
+			final int worker = t;
+			Thread thread = new Thread("worker-" + t){
+				@Override
+				public void run(){
+					long sequence;
+					while(true){
+						controller.awaitTurn(worker);
+						if ((sequence = ring.take()) < 0){
+							break;
+						}
+						RecordRing.Slot slot = ring.get(sequence);
+						long started = System.nanoTime();
+						long bytes = slot.getBytes();
+						int records = slot.getBatch().size();
+						try {
+							IndexWriter shardWriter = writerFor(slot.getBatch().getFileName(), sequence);
+							RecordBatchConsumer consumer = new RecordBatchConsumer(shardWriter, slot.getBatch(), startTime, slot.getTypes(), schema);
+							if (records > 0){
+								List<List<IndexableField>> documents = consumer.buildLuceneDocuments();
+								long built = System.nanoTime();
+								consumer.addToIndex(documents);
+								stats.timed(records, built - started, System.nanoTime() - built);
+							}
+						} catch (IOException | RuntimeException e) {
+							LOG.error("Failed indexing records", e);
+							checkpoint.failed(e);  // its records are lost; the load must not commit past them.
+						} finally {
+							ring.release(sequence);
+							checkpoint.indexed();
+							memoryBudget.indexed(bytes);
+							stats.indexed(records, bytes);
+							controller.indexed(records, System.nanoTime() - started);
+						}
+					}
+				}
+			};
+			thread.start();
+			workers.add(thread);
+		}
+		controller.start();
+		return workers;
+	}
+
+	/**
+	 * Pick the writer of a batch: the shard it is routed to, or the one writer when not sharded.
+	 * 
+	 * @param fileName		file the records were read from.
+	 * @param sequence		sequence number of the batch.
+	 * @return writer
+	 */
+	private IndexWriter writerFor(final String fileName, final long sequence){
+		return (shards != null ? shards.route(fileName, sequence) : writer);
+	}
+
+	/**
+	 * Delete the records of a file, by its _file term, from the index and its shards.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	private void deleteRecords(final File file) throws IOException{
+		Term term = new Term("_file", file.getAbsolutePath());
+		writer.deleteDocuments(term);
+		if (shards != null){
+			shards.deleteDocuments(term);
+		}
+	}
+
+	/**
+	 * Wait for the worker threads to index every queued record, then stop them.
+	 * 
+	 * @param workers
+	 */
+	private void stopWorkers(final List<Thread> workers){
+		ring.shutdown();
+		workerController.stop();  // waiting workers see the shutdown too.
+
+		for(Thread thread : workers){
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				LOG.error("Worker Interrupted", e);
+			}
+		}
+	}
+
+
+	/**
+	 * Take the next file to read, or group of small files, shared by all reader threads.
+	 * 
+	 * @param scheduler
+	 * @return files, or null when all files are taken.
+	 */
+	private synchronized List<File> nextFiles(final FileScheduler scheduler){
+		if (!scheduler.hasNext()){
+			return null;
+		}
+		List<File> files = scheduler.next();
+		int first = doneFileCount + 1;
+		doneFileCount += files.size();
+		stats.setFiles(doneFileCount, totalFileCount);
+		String total = (totalFileCount < 0 ? "?" : String.valueOf(totalFileCount));
+		if (files.size() == 1){
+			LOG.info("Indexing file {} of {} : {}", doneFileCount, total, files.get(0).getAbsolutePath());
+		} else {
+			LOG.info("Indexing files {}-{} of {} : {} small files", first, doneFileCount, total, files.size());
+		}
+		return files;
+	}
+
+	/**
+	 * Index a single file, unless it is unchanged since last indexed or was indexed before the last commit.
+	 * 
+	 * The records of a file that changed are deleted, by its _file term, before it is read again; so are those
+	 * of a file part way read when the load was interrupted, if it changed before it could be resumed.
+	 * 
+	 * The reader is only built, sampling the file, once the file is to be read; skipping a file costs a stat.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	private void indexFile(final File file) throws IOException{
+		if (checkpoint.isDone(file)){
+			LOG.info("Already indexed before the last commit : {}", file.getAbsolutePath());
+			return;
+		}
+
+		List<Checkpoint.Stream> resumeStreams = checkpoint.getResumeStreams(file);
+		Manifest.Entry entry;
+		if (resumeStreams != null && !checkpoint.isResumable(file, false)){
+			LOG.warn("Changed since the load was interrupted; replacing its records : {}", file.getAbsolutePath());
+			deleteRecords(file);
+			checkpoint.abandon(file);
+			resumeStreams = null;
+			entry = Manifest.describe(file);
+		} else if (resumeStreams != null){
+			entry = Manifest.describe(file);  // its old records were deleted before the interruption.
+		} else {
+			entry = manifest.changed(file);
+			if (entry == null){
+				LOG.info("Unchanged since last indexed : {}", file.getAbsolutePath());
+				return;
+			}
+			if (manifest.contains(file)){
+				LOG.info("Changed since last indexed; replacing its records : {}", file.getAbsolutePath());
+				deleteRecords(file);
+			}
+		}
+
+		RecordIterator reader = readerFactory.newReader(file);
+		try {
+			ColumnType[] types = resolveColumnTypes(file, reader);
+
+			if (resumeStreams != null){
+				resumeFile(file, reader, types, resumeStreams);
+			} else {
+				readFile(file, reader, types);
+			}
+		} catch (RecordReadException e) {
+			throw new IOException(e.getMessage(), e.getCause());  // left unfinished, to be read again.
+		}
+
+		manifest.put(file, entry);
+		checkpoint.finish(file);
+		stats.finished(file.getAbsolutePath());
+	}
+
+	/**
+	 * Read a single file and queue its records, splitting it into byte ranges when it is large enough.
+	 * 
+	 * The offsets of every Nth record are collected while reading, unless the file already has a current sidecar.
+	 * 
+	 * @param file
+	 * @param reader	unopened reader, owned by the calling thread.
+	 * @param types		column types.
+	 * @throws IOException
+	 */
+	private void readFile(final File file, final RecordIterator reader, final ColumnType[] types) throws IOException{
+		boolean mapped = (reader instanceof MappedCSVReader && !CSVInput.isGzip(file));  // byte positions are those of the file.
+		boolean keepOffsets = (mapped && config.getIndexerOffsetsInterval() > 0);
+		RecordOffsets offsets = (keepOffsets ? RecordOffsets.openCurrent(offsetsDirectory, file) : null);
+
+		if (mapped && file.length() >= config.getIndexerPartitionMinSize()){
+			indexPartitioned(file, (MappedCSVReader) reader, types, offsets, keepOffsets && offsets == null);
+			return;
+		}
+
+		RecordOffsets.Builder offsetBuilder = null;
+		if (keepOffsets && offsets == null){
+			offsetBuilder = new RecordOffsets.Builder(config.getIndexerOffsetsInterval());
+			((MappedCSVReader) reader).setOffsetBuilder(offsetBuilder);
+		}
+
+		reader.open(file);
+		try {
+			Checkpoint.Stream stream;
+			if (mapped){
+				MappedCSVReader mappedReader = (MappedCSVReader) reader;
+				stream = checkpoint.begin(file, mappedReader.getRecordPosition(), file.length(), mappedReader.getRecordLineNumber(), 0);
+			} else {
+				stream = checkpoint.begin(file, -1, -1, 0, 0);
+			}
+			dispatch(reader, types, stream);
+		} finally {
+			reader.close();
+		}
+
+		if (offsetBuilder != null){
+			writeOffsets(file, offsetBuilder);
+		}
+	}
+
+	/**
+	 * Read the rest of a file that was part way read when the load was interrupted, from the progress of its last commit.
+	 * 
+	 * Byte ranges are opened where they were left; other files are read again skipping the records already indexed.
+	 * 
+	 * @param file
+	 * @param reader		unopened reader, owned by the calling thread.
+	 * @param types			column types.
+	 * @param streams		progress of the file at the last commit.
+	 * @throws IOException
+	 */
+	private void resumeFile(final File file, final RecordIterator reader, final ColumnType[] types, final List<Checkpoint.Stream> streams) throws IOException{
+		if (streams.get(0).isRanged()){
+			MappedCSVReader headerReader = ((MappedCSVReader) reader).newReader();
+			headerReader.open(file);
+			String[] header = headerReader.getHeader();
+			headerReader.close();
+
+			List<Partition> partitions = new ArrayList<Partition>(streams.size());
+			List<Long> records = new ArrayList<Long>(streams.size());
+			for(Checkpoint.Stream stream : streams){
+				if (stream.getPosition() < stream.getEnd()){
+					partitions.add(new Partition(file, header, stream.getPosition(), stream.getEnd(), stream.getLineNumber()));
+					records.add(stream.getRecords());
+				}
+			}
+			LOG.info("Resuming {} byte ranges : {}", partitions.size(), file.getAbsolutePath());
+			readPartitions(file, new CSVPartitioner((MappedCSVReader) reader), partitions, records, types, null);
+			return;
+		}
+
+		long skip = streams.get(0).getRecords();
+		LOG.info("Resuming after {} records : {}", skip, file.getAbsolutePath());
+		reader.open(file);
+		try {
+			for(long r=0; r < skip && reader.hasNext(); r++){
+				if (reader instanceof MappedCSVReader){
+					((MappedCSVReader) reader).skip();
+				} else {
+					reader.next();
+				}
+			}
+			dispatch(reader, types, checkpoint.begin(file, -1, -1, 0, skip));
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Write the record offset sidecar of a file; a file without one is still indexed, just partitioned by a prepass.
+	 * 
+	 * @param file
+	 * @param offsetBuilder
+	 */
+	private void writeOffsets(final File file, final RecordOffsets.Builder offsetBuilder){
+		File sidecar = RecordOffsets.sidecarFile(offsetsDirectory, file);
+		try {
+			offsetBuilder.write(sidecar, file);
+			LOG.debug("Wrote {} record offsets to {}", offsetBuilder.size(), sidecar.getAbsolutePath());
+		} catch (IOException e) {
+			LOG.error("Failed writing record offsets {}", sidecar.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * Get the column types of a file from the schema, sampling its first records for columns not seen before.
+	 * 
+	 * @param file
+	 * @param reader	unopened reader for the file; a copy of it reads the sample.
+	 * @return types in header order.
+	 * @throws IOException
+	 */
+	private ColumnType[] resolveColumnTypes(final File file, final RecordIterator reader) throws IOException{
+		RecordIterator sampler = reader.newReader();
+		sampler.open(file);
+		try {
+			List<String[]> sample = new ArrayList<String[]>();
+			while(sampler.hasNext() && sample.size() < SCHEMA_SAMPLE_SIZE){
+				sample.add(sampler.next());
+			}
+			return schema.resolve(sampler.getHeader(), sample);
+		} finally {
+			sampler.close();
+		}
+	}
+
+	/**
+	 * Index a single large file by splitting it into byte ranges, each parsed on its own thread.
+	 * 
+	 * @param file
+	 * @param prototype		reader whose settings are used for each byte range.
+	 * @param types			column types.
+	 * @param offsets		current record offsets of the file to cut it at, or null to find the cuts by a prepass.
+	 * @param buildOffsets	whether to collect the file's record offsets while reading.
+	 * @throws IOException
+	 */
+	private void indexPartitioned(final File file, final MappedCSVReader prototype, final ColumnType[] types, final RecordOffsets offsets, final boolean buildOffsets) throws IOException{
+		final CSVPartitioner partitioner = new CSVPartitioner(prototype);
+		List<Partition> partitions;
+		if (offsets != null){
+			partitions = partitioner.partition(file, config.getIndexerPartitionCount(), offsets);
+		} else {
+			partitions = partitioner.partition(file, config.getIndexerPartitionCount());
+		}
+		LOG.info("Parsing file in {} partitions : {}", partitions.size(), file.getAbsolutePath());
+
+		RecordOffsets.Builder[] offsetBuilders = null;
+		if (buildOffsets){
+			offsetBuilders = new RecordOffsets.Builder[partitions.size()];
+			for(int p=0; p < offsetBuilders.length; p++){
+				offsetBuilders[p] = new RecordOffsets.Builder(config.getIndexerOffsetsInterval());
+			}
+		}
+
+		readPartitions(file, partitioner, partitions, null, types, offsetBuilders);
+
+		if (buildOffsets){
+			RecordOffsets.Builder offsetBuilder = new RecordOffsets.Builder(config.getIndexerOffsetsInterval());
+			for(RecordOffsets.Builder partitionOffsets : offsetBuilders){
+				if (partitionOffsets == null){
+					return;
+				}
+				offsetBuilder.addAll(partitionOffsets);
+			}
+			writeOffsets(file, offsetBuilder);
+		}
+	}
+
+	/**
+	 * Index csv files as they are dropped into a directory tree, until the thread is interrupted.
+	 * 
+	 * The writer, analyzer and worker threads stay open from one file to the next. Files are read once
+	 * settled, see DropFolder. After each group of files is read the index is committed, then the files
+	 * are moved to indexer.watch.done.dir when set; otherwise they stay, and the manifest keeps them from
+	 * being indexed again unless they change. A file dropped again under the same name replaces the
+	 * records of the earlier one.
+	 * 
+	 * @param directory
+	 * @throws IOException
+	 */
+	public void watch(final String directory) throws IOException{
+		File root = new File(directory).getAbsoluteFile();
+		File doneDirectory = null;
+		if (config.getIndexerWatchDoneDir() != null){
+			doneDirectory = new File(config.getIndexerWatchDoneDir());
+			if (!doneDirectory.isAbsolute()){
+				doneDirectory = new File(root, config.getIndexerWatchDoneDir());
+			}
+		}
+
+		final int prefetchFiles = Math.max(1, config.getIndexerPrefetchFiles());
+		List<Thread> workers = startWorkers(prefetchFiles * config.getIndexerPartitionCount());
+		DropFolder dropFolder = new DropFolder(root, doneDirectory, fileNameSuffixes(), config.getIndexerWatchSettleMillis());
+		LOG.info("Watching {} for csv files", root);
+		try {
+			while(!Thread.currentThread().isInterrupted()){
+				List<File> files = dropFolder.take(Math.max(100, config.getIndexerWatchSettleMillis() / 4));
+				if (files.isEmpty()){
+					continue;
+				}
+				LOG.info("Indexing dropped files; file count: {}", files.size());
+				readFiles(new FileScheduler(files, config.getIndexerScheduleGroupSize(), config.getIndexerScheduleGroupFiles()), files.size());
+				checkpoint.commit(true);
+				checkpoint.checkFailure();
+				if (doneDirectory != null){
+					moveDone(root, doneDirectory, files);
+				}
+			}
+		} catch (InterruptedException e) {
+			LOG.info("Stopped watching {}", root);
+		} finally {
+			dropFolder.close();
+			stopWorkers(workers);
+		}
+	}
+
+	/**
+	 * Move committed files out of the watched tree, keeping their path below it.
+	 * 
+	 * @param root
+	 * @param doneDirectory
+	 * @param files
+	 */
+	private static void moveDone(final File root, final File doneDirectory, final List<File> files){
+		for(File file : files){
+			Path target = doneDirectory.toPath().resolve(root.toPath().relativize(file.getAbsoluteFile().toPath()));
+			try {
+				Files.createDirectories(target.getParent());
+				Files.move(file.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException e) {
+				LOG.error("Failed moving {} to {}", file.getAbsolutePath(), target, e);
+			}
+		}
+	}
 
-			csvReader.open(file);
+	/**
+	 * Follow files which keep being appended to, such as logs written as csv, indexing records as they are written.
+	 * 
+	 * Each file is read to its end, then polled every indexer.follow.poll.millis for appended bytes.
+	 * A last line not yet ended by a line break is left for a later poll. Records read are committed
+	 * within indexer.follow.commit.millis together with each file's position, so they become searchable
+	 * within seconds and a restart carries on where the last commit left off. A file which shrinks is
+	 * taken as truncated or replaced; its records are deleted and it is read again from the start.
+	 * 
+	 * Runs until the thread is interrupted. Only uncompressed files read by the MappedCSVReader are followed.
+	 * 
+	 * @param files
+	 * @throws IOException
+	 */
+	public void follow(final Collection<File> files) throws IOException{
+		LOG.info("Following files; file count: {}", files.size());
+		List<Thread> workers = startWorkers(1);
 
-			String[] header = csvReader.getHeader();
+		List<FollowedFile> followed = new ArrayList<FollowedFile>(files.size());
+		for(File file : files){
+			RecordIterator reader = readerFactory.newReader(file);
+			if (!(reader instanceof MappedCSVReader) || CSVInput.isGzip(file)){
+				LOG.warn("Only uncompressed files read by the MappedCSVReader can be followed; skipping {}", file.getAbsolutePath());
+				continue;
+			}
+			((MappedCSVReader) reader).setTailing(true);
+			followed.add(new FollowedFile(file, (MappedCSVReader) reader));
+		}
 
+		try {
+			while(!Thread.currentThread().isInterrupted()){
+				for(FollowedFile followedFile : followed){
+					try {
+						poll(followedFile);
+					} catch (IOException | RecordReadException e) {
+						LOG.error("Failed following file {}", followedFile.file.getAbsolutePath(), e);
+					}
+				}
+				checkpoint.commitWithin(config.getIndexerFollowCommitMillis());
+				checkpoint.checkFailure();
+				Thread.sleep(config.getIndexerFollowPollMillis());
+			}
+		} catch (InterruptedException e) {
+			LOG.info("Stopped following files");
+		} finally {
+			stopWorkers(workers);
+		}
+	}
 
-			while(csvReader.hasNext() ){
-					String[] record = (String[]) csvReader.next();
+	/**
+	 * Index the records appended to a followed file since the last poll.
+	 * 
+	 * @param followed
+	 * @throws IOException
+	 */
+	private void poll(final FollowedFile followed) throws IOException{
+		File file = followed.file;
+		if (followed.stream == null){
+			startFollowing(followed);
+			return;
+		}
 
-					Map<String, String> metadata = new LinkedHashMap<String, String>();
-					metadata.put("_index_time", startTime);
-					metadata.put("_doc_id", csvReader.getFileName()+":"+String.valueOf(csvReader.getLineNumber()));
+		long length = file.length();
+		long position = followed.stream.getPosition();
+		if (length < position){
+			LOG.warn("File shrank; reading it again from the start : {}", file.getAbsolutePath());
+			deleteRecords(file);
+			checkpoint.abandon(file);
+			followed.stream = null;
+			return;
+		}
+		if (length == position){
+			return;
+		}
 
-					if (recordQueue.size() < maxThreads*3){
-						recordQueue.add(new RecordConsumer(writer, header, record, metadata));
-					} else {
+		MappedCSVReader reader = followed.prototype.newReader();
+		reader.open(file, position, length, followed.stream.getLineNumber(), followed.header);
+		try {
+			dispatch(reader, followed.types, followed.stream);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Start following a file: carry on from the position of the last commit, skip to the end
+	 * when the file is indexed and unchanged, or else index it from the start.
+	 * 
+	 * @param followed
+	 * @throws IOException
+	 */
+	private void startFollowing(final FollowedFile followed) throws IOException{
+		File file = followed.file;
+		MappedCSVReader reader = followed.prototype.newReader();
+		reader.open(file);
+		try {
+			if (reader.getHeader().length == 0){
+				return;  // header line not written yet.
+			}
+			followed.header = reader.getHeader();
+			followed.types = resolveColumnTypes(file, followed.prototype);
+
+			List<Checkpoint.Stream> streams = checkpoint.getResumeStreams(file);
+			if (streams != null && streams.size() == 1 && streams.get(0).isRanged() && checkpoint.isResumable(file, true)){
+				Checkpoint.Stream stream = streams.get(0);
+				LOG.info("Following from line {} : {}", stream.getLineNumber(), file.getAbsolutePath());
+				followed.stream = checkpoint.begin(file, stream.getPosition(), Long.MAX_VALUE, stream.getLineNumber(), stream.getRecords());
+				return;
+			}
+
+			if (streams == null && (checkpoint.isDone(file) || manifest.contains(file) && manifest.changed(file) == null)){
+				while(reader.hasNext()){
+					reader.skip();
+				}
+				LOG.info("Following from the end, line {} : {}", reader.getRecordLineNumber(), file.getAbsolutePath());
+				followed.stream = checkpoint.begin(file, reader.getRecordPosition(), Long.MAX_VALUE, reader.getRecordLineNumber(), 0);
+				return;
+			}
+
+			if (streams != null || manifest.contains(file)){
+				LOG.info("Changed since last indexed; replacing its records : {}", file.getAbsolutePath());
+				deleteRecords(file);
+				checkpoint.abandon(file);
+			}
+			LOG.info("Following from the start : {}", file.getAbsolutePath());
+			followed.stream = checkpoint.begin(file, reader.getRecordPosition(), Long.MAX_VALUE, reader.getRecordLineNumber(), 0);
+			dispatch(reader, followed.types, followed.stream);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * State of a followed file between polls.
+	 */
+	private static class FollowedFile {
+		private final File file;
+		private final MappedCSVReader prototype;	// tailing reader settings.
+		private String[] header;
+		private ColumnType[] types;
+		private Checkpoint.Stream stream;			// null until reading starts.
+
+		FollowedFile(final File file, final MappedCSVReader prototype){
+			this.file = file;
+			this.prototype = prototype;
+		}
+	}
+
+	/**
+	 * Parse each byte range of a file on its own thread, returning once all are read.
+	 * 
+	 * @param file
+	 * @param partitioner
+	 * @param partitions
+	 * @param records			records of each partition already indexed, or null when all start afresh.
+	 * @param types				column types.
+	 * @param offsetBuilders	builder for the offsets of each partition, or null; set to null when a partition fails.
+	 * @throws IOException when any partition failed; the others are read to their end.
+	 */
+	private void readPartitions(final File file, final CSVPartitioner partitioner, final List<Partition> partitions, final List<Long> records, final ColumnType[] types, final RecordOffsets.Builder[] offsetBuilders) throws IOException{
+		List<Thread> readerThreads = new ArrayList<Thread>(partitions.size());
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		for(final Partition partition : partitions){
+			final int p = readerThreads.size();
+			final Checkpoint.Stream stream = checkpoint.begin(file, partition.getStart(), partition.getEnd(), partition.getLineNumber(), (records != null ? records.get(p) : 0));
+			Thread thread = new Thread("partition-" + p){
+				@Override
+				public void run(){
+					try {
+						MappedCSVReader reader = partitioner.open(partition, (offsetBuilders != null ? offsetBuilders[p] : null));
 						try {
-							recordQueue.transfer(new RecordConsumer(writer, header, record, metadata));
-						} catch (InterruptedException e) {
-							LOG.error("LinkedTransferQueue Interrupted", e);
+							dispatch(reader, types, stream);
+						} finally {
+							reader.close();
+						}
+					} catch (IOException | RecordReadException e) {
+						LOG.error("Failed reading partition {}", partition, e);
+						failure.compareAndSet(null, e);
+						if (offsetBuilders != null){
+							offsetBuilders[p] = null;  // incomplete.
 						}
 					}
+				}
+			};
+			thread.start();
+			readerThreads.add(thread);
+		}
+
+		for(Thread thread : readerThreads){
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				LOG.error("Partition reader Interrupted", e);
 			}
+		}
+		if (failure.get() != null){
+			throw new IOException("Failed reading a partition of " + file.getAbsolutePath(), failure.get());
+		}
+	}
 
-			csvReader.close();
+	/**
+	 * Index files on worker processes, each into an index of its own, then merge their indexes into this one.
+	 * 
+	 * Files unchanged since last indexed are skipped, and the records of changed files deleted, as by index().
+	 * Column types of all files are settled here first, so every worker indexes a column the same way.
+	 * Files larger than indexer.partition.min.size are cut into byte ranges; see Coordinator.
+	 * Records of a file with a slice that failed on every attempt are left out of the index, and the file
+	 * is not recorded in the manifest, so the next load indexes it again. A coordinated load which is
+	 * interrupted starts over when run again, except for files merged by earlier loads.
+	 * 
+	 * @param files
+	 * @throws IOException
+	 */
+	public void coordinate(final Collection<File> files) throws IOException{
+		File indexDirectory = new File(config.getIndexPath());
+		File workersDirectory = new File(indexDirectory, Coordinator.DIRECTORY_NAME);
+		if (workersDirectory.exists()){
+			LOG.warn("Discarding the workers of an interrupted load : {}", workersDirectory.getAbsolutePath());
+			FileUtils.deleteDirectory(workersDirectory);
 		}
 
-		executor.shutdown();
+		Map<File, Manifest.Entry> entries = new LinkedHashMap<File, Manifest.Entry>();
+		List<Coordinator.Slice> slices = new ArrayList<Coordinator.Slice>();
+		for(File file : files){
+			Manifest.Entry entry = manifest.changed(file);
+			if (entry == null){
+				LOG.info("Unchanged since last indexed : {}", file.getAbsolutePath());
+				continue;
+			}
+			if (manifest.contains(file)){
+				LOG.info("Changed since last indexed; replacing its records : {}", file.getAbsolutePath());
+				deleteRecords(file);
+			}
+			entries.put(file, entry);
 
-		while(! executor.isTerminated()){
-			try{
-				Thread.sleep(10);
-			} catch (InterruptedException e){
-				LOG.error("ThreadPoolExecutor Interrupted", e);
+			RecordIterator reader = readerFactory.newReader(file);
+			resolveColumnTypes(file, reader);
+			if (reader instanceof MappedCSVReader && file.length() >= config.getIndexerPartitionMinSize() && !CSVInput.isGzip(file)){
+				CSVPartitioner partitioner = new CSVPartitioner((MappedCSVReader) reader);
+				int count = Math.max(config.getIndexerPartitionCount(), config.getIndexerCoordinatorWorkers());
+				RecordOffsets offsets = RecordOffsets.openCurrent(offsetsDirectory, file);
+				for(Partition partition : (offsets != null ? partitioner.partition(file, count, offsets) : partitioner.partition(file, count))){
+					slices.add(new Coordinator.Slice(slices.size(), partition));
+				}
+			} else {
+				slices.add(new Coordinator.Slice(slices.size(), file));
 			}
 		}
+		if (slices.isEmpty()){
+			return;
+		}
+		schema.store(indexDirectory);
+
+		Collections.sort(slices, new Comparator<Coordinator.Slice>(){
+			@Override
+			public int compare(Coordinator.Slice a, Coordinator.Slice b){
+				return Long.compare(b.size(), a.size());  // largest first.
+			}
+		});
+
+		Coordinator coordinator = new Coordinator(workersDirectory, new File(indexDirectory, Schema.FILE_NAME), config.getIndexerCoordinatorWorkers(),
+				config.getIndexerCoordinatorPort(), config.getIndexerCoordinatorAttempts(), config.getIndexerCoordinatorJvmArgs());
+		coordinator.run(slices);
+
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		List<Directory> directories = new ArrayList<Directory>();
+		for(File workerDirectory : coordinator.getIndexDirectories()){
+			Directory directory = NIOFSDirectory.open(workerDirectory);
+			if (DirectoryReader.indexExists(directory)){
+				directories.add(directory);
+			}
+			moveOffsets(new File(workerDirectory, RecordOffsets.DIRECTORY_NAME));
+		}
+		writer.addIndexes(directories.toArray(new Directory[directories.size()]));
+		for(Map.Entry<File, Manifest.Entry> entry : entries.entrySet()){
+			if (coordinator.getFailedFiles().contains(entry.getKey())){
+				LOG.error("Failed indexing; leaving it out of the index : {}", entry.getKey().getAbsolutePath());
+				deleteRecords(entry.getKey());
+			} else {
+				manifest.put(entry.getKey(), entry.getValue());
+			}
+		}
+		checkpoint.commit(true);
+		LOG.info("Merged {} worker indexes; time: {}", directories.size(), stopwatch);
+
+		for(Directory directory : directories){
+			directory.close();
+		}
+		for(File workerDirectory : coordinator.getIndexDirectories()){
+			FileUtils.deleteDirectory(workerDirectory);
+		}
+		FileUtils.deleteDirectory(workersDirectory);
 	}
 
+	/**
+	 * Move the record offset sidecars written by a worker into this index's.
+	 * 
+	 * @param workerOffsets
+	 */
+	private void moveOffsets(final File workerOffsets){
+		File[] sidecars = workerOffsets.listFiles();
+		if (sidecars == null){
+			return;
+		}
+		offsetsDirectory.mkdirs();
+		for(File sidecar : sidecars){
+			try {
+				Files.move(sidecar.toPath(), new File(offsetsDirectory, sidecar.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException e) {
+				LOG.warn("Failed moving record offsets {}", sidecar.getAbsolutePath(), e);
+			}
+		}
+	}
 
 	/**
-	 * @param args
-	 * @throws IOException 
+	 * Index the slices a coordinator hands out into this worker's own index, until told to quit.
+	 * 
+	 * The index is committed after each slice, tagged with it. When a slice fails, what was indexed
+	 * since the last commit is rolled back before reporting it, so the index holds only finished slices.
+	 * 
+	 * @param coordinatorAddress	host:port of the coordinator.
+	 * @throws IOException when a slice failed; the writer is then closed.
 	 */
-	public static void main(String[] args) throws IOException {
-		String indexDir = args[0];
+	public void work(final String coordinatorAddress) throws IOException{
+		int colon = coordinatorAddress.lastIndexOf(':');
+		Socket socket = new Socket(coordinatorAddress.substring(0, colon), Integer.parseInt(coordinatorAddress.substring(colon + 1)));
+		List<Thread> workers = startWorkers(config.getIndexerPartitionCount());
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+			out.println("HELLO " + new File(config.getIndexPath()).getAbsolutePath());
 
+			String line;
+			while((line = in.readLine()) != null && !line.equals("QUIT")){
+				if (line.startsWith("SCHEMA ")){
+					File schemaFile = new File(line.substring(7));
+					if (schemaFile.exists()){
+						schema.loadOverrides(schemaFile);  // columns typed as the main index types them.
+					}
+					continue;
+				}
+				Coordinator.Slice slice = Coordinator.Slice.parse(line.substring(6));
+				try {
+					long records = indexSlice(slice);
+					out.println("DONE " + slice.getId() + " " + records);
+				} catch (IOException | RuntimeException e) {
+					LOG.error("Failed indexing slice {}", slice, e);
+					stopWorkers(workers);
+					writer.rollback();
+					writer = null;
+					out.println("FAILED " + slice.getId() + " " + e);
+					throw new IOException("Failed indexing slice " + slice, e);
+				}
+			}
+		} finally {
+			if (writer != null){
+				stopWorkers(workers);
+			}
+			socket.close();
+		}
+	}
+
+	/**
+	 * Index one slice and commit it.
+	 * 
+	 * @param slice
+	 * @return records indexed.
+	 * @throws IOException
+	 */
+	private long indexSlice(final Coordinator.Slice slice) throws IOException{
+		File file = slice.getFile();
+		LOG.info("Indexing slice {} : {}", slice.getId(), file.getAbsolutePath());
+		int before = writer.maxDoc();
+
+		RecordIterator reader = readerFactory.newReader(file);
+		ColumnType[] types = resolveColumnTypes(file, reader);
+		if (slice.isRanged()){
+			MappedCSVReader headerReader = ((MappedCSVReader) reader).newReader();
+			headerReader.open(file);
+			String[] header = headerReader.getHeader();
+			headerReader.close();
+
+			Partition partition = new Partition(file, header, slice.getStart(), slice.getEnd(), slice.getLineNumber());
+			MappedCSVReader rangeReader = new CSVPartitioner((MappedCSVReader) reader).open(partition);
+			try {
+				dispatch(rangeReader, types, checkpoint.begin(file, slice.getStart(), slice.getEnd(), slice.getLineNumber(), 0));
+			} finally {
+				rangeReader.close();
+			}
+		} else {
+			readFile(file, reader, types);
+		}
+		checkpoint.finish(file);
+		stats.finished(file.getAbsolutePath());
+
+		Map<String, String> commitData = new HashMap<String, String>(writer.getCommitData());
+		commitData.put(Coordinator.SLICE_PREFIX + slice.getId(), "done");
+		writer.setCommitData(commitData);  // kept by the checkpoint's commit.
+		checkpoint.commit(true);
+		checkpoint.checkFailure();
+		return writer.maxDoc() - before;
+	}
+
+	/**
+	 * Read all records from an opened reader and queue them for the consumer threads,
+	 * indexer.batch.size records per task; a batch size of 1 queues each record on its own.
+	 * Batches are filled in place in the slots of the ring, so their buffers are reused.
+	 * 
+	 * Safe to call from several reader threads at once.
+	 * 
+	 * @param reader
+	 * @param types		column types.
+	 * @param stream	progress of the reader, noted after each batch for the checkpoint commits.
+	 */
+	private void dispatch(final RecordIterator reader, final ColumnType[] types, final Checkpoint.Stream stream){
+		String[] header = reader.getHeader();
+
+		while(true){
+			int records = 0;
+			checkpoint.enter();
+			try {
+				if (!reader.hasNext() || checkpoint.isFailed()){
+					break;  // once records failed to be indexed, the load fails without committing what follows.
+				}
+
+				memoryBudget.acquire();
+				long sequence = ring.claim();
+				RecordRing.Slot slot = ring.get(sequence);
+				RecordReadException failure = null;
+				try {
+					reader.nextBatch(slot.getBatch());  // filled in place.
+				} catch (RecordReadException e) {
+					slot.getBatch().reset(reader.getFileName(), header);  // still published, empty, so the ring moves on.
+					failure = e;
+				}
+				slot.setTypes(types);
+				slot.setBytes(slot.getBatch().bytes());
+				records = slot.getBatch().size();
+				memoryBudget.queued(slot.getBytes());
+				stats.read(reader.getFileName(), records, slot.getBytes());
+				checkpoint.queued();
+				ring.publish(sequence);
+				if (failure != null){
+					throw failure;
+				}
+			} finally {
+				checkpoint.read(stream, reader, records);
+			}
+		}
+	}
+
+	/**
+	 * Create one of the build-in csv parsers by name.
+	 * 
+	 * @param name	mapped, jcsv, supercsv, javacsv, opencsv or simple.
+	 * @return reader
+	 */
+	private static RecordIterator createReader(final String name){
 		/*
-		 * Five build-in csv parsers, listed from fastest to slowest.
+		 * Six build-in csv parsers, listed from fastest to slowest.
 		 * @TODO find limitations for each csv parser implementation.
 		 */
-		JCSVReader csvReader = new JCSVReader(',', '"', '#');
-		//SuperCSVReader csvReader = new SuperCSVReader(',', '"', '#'); // fastest on larger files; slow on small files.
-		//JavaCSVReader csvReader = new JavaCSVReader(',', '"', '#');
-		//OpenCSVReader csvReader = new OpenCSVReader(',', '"');
-		//SimpleReader csvReader = new SimpleReader(',');  // non-complex csv, slowest but simplest to customize the single class.
+		switch(name.toLowerCase()){
+			case "mapped":		return new MappedCSVReader(',', '"', '#'); // native, memory mapped; no third-party parser.
+			case "jcsv":		return new JCSVReader(',', '"', '#');
+			case "supercsv":	return new SuperCSVReader(',', '"', '#'); // fastest on larger files; slow on small files.
+			case "javacsv":		return new JavaCSVReader(',', '"', '#');
+			case "opencsv":		return new OpenCSVReader(',', '"');
+			case "simple":		return new SimpleCSVReader(',');  // non-complex csv, slowest but simplest to customize the single class.
+			default:
+				throw new IllegalArgumentException("Unknown indexer.reader: " + name);
+		}
+	}
+
+	/**
+	 * @param args
+	 * @throws IOException 
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean follow = "-follow".equals(args[0]);  // keep indexing records appended to the files.
+		boolean watch = "-watch".equals(args[0]);  // keep indexing files dropped into the directory.
+		boolean coordinate = "-coordinate".equals(args[0]);  // index the files on worker processes.
+		boolean worker = "-worker".equals(args[0]);  // index slices handed out by a coordinator: -worker <host:port> <index directory>
+		String indexDir = args[follow || watch || coordinate || worker ? 1 : 0];
 
-		Indexer indexer = new Indexer(csvReader);
+		if (worker){
+			// Committed after each slice only, straight into its own index.
+			Thread.currentThread().setName(new File(args[2]).getName());
+			System.setProperty("index.path", args[2]);
+			System.setProperty("indexer.commit.records", "0");
+			System.setProperty("indexer.commit.seconds", "0");
+			System.setProperty("indexer.shards", "1");
+			System.setProperty("indexer.bulk.merge.segments", "0");  // the coordinator merges once, after addIndexes.
+			config.load();
+		}
+
+		Indexer indexer;
+		String readerName = config.getIndexerReader();
+		if ("auto".equalsIgnoreCase(readerName)){
+			SamplingReaderFactory factory = new SamplingReaderFactory();  // picks parser and separator per file.
+			factory.setCharset(config.getIndexerInputEncoding());
+			indexer = new Indexer(factory);
+		} else {
+			indexer = new Indexer(createReader(readerName));
+		}
 
 		Stopwatch stopwatch = Stopwatch.createStarted();
 		
-		indexer.index(indexDir);
+		if (follow){
+			indexer.follow(listFiles(indexDir));
+		} else if (coordinate){
+			indexer.coordinate(listFiles(indexDir));
+		} else if (worker){
+			indexer.work(indexDir);
+		} else if (watch){
+			indexer.watch(indexDir);
+		} else {
+			indexer.index(indexDir);
+		}
 
 		LOG.info("Finished adding records; closing index.");
 
@@ -0,0 +1,321 @@
+/**
+ *
+ */
+package us.brianfeldman.lucene;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.lucene.index.IndexWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * IndexingStats publishes the metrics of a running load as an MBean, named
+ * us.brianfeldman.lucene:type=Indexer,index="<index directory>", for jconsole or a JMX exporter.
+ *
+ * Totals and times are counted by the worker threads as they index; per file counts are taken as the
+ * records are read, which the ring keeps at most a few batches ahead. Recent rates are over the time
+ * since they were last computed, at least a second; queue, worker and writer figures are read when asked.
+ *
+ * @author Brian G. Feldman <bgfeldm@yahoo.com>
+ */
+public class IndexingStats implements IndexingStatsMBean {
+	private static final Logger LOG = LoggerFactory.getLogger(IndexingStats.class);
+
+	private static final long RATE_MILLIS = 1000;  // shortest window of the recent rates.
+
+	private final IndexWriter writer;
+	private volatile Shards shards;
+	private final long startTime = System.currentTimeMillis();
+	private final AtomicLong records = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong builtDocuments = new AtomicLong();
+	private final AtomicLong buildNanos = new AtomicLong();
+	private final AtomicLong addNanos = new AtomicLong();
+	private final Map<String, FileStats> files = new LinkedHashMap<String, FileStats>();
+	private volatile RecordRing ring;
+	private volatile WorkerController workerController;
+	private volatile MemoryBudget memoryBudget;
+	private volatile int currentFile = 0;
+	private volatile int totalFiles = 0;
+
+	private long rateTime = startTime;
+	private long rateRecords = 0;
+	private long rateBytes = 0;
+	private double recordsPerSecond = 0;
+	private double bytesPerSecond = 0;
+
+	private ObjectName name;
+
+	/**
+	 * @param writer	writer of the index.
+	 * @param shards	shards of the index, or null.
+	 */
+	public IndexingStats(final IndexWriter writer, final Shards shards){
+		this.writer = writer;
+		this.shards = shards;
+	}
+
+	/**
+	 * Stop reading the shards, before they are closed.
+	 */
+	public void detachShards(){
+		shards = null;
+	}
+
+	/**
+	 * Register with the platform MBean server.
+	 *
+	 * @param indexPath
+	 */
+	public void register(final String indexPath){
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			name = new ObjectName("us.brianfeldman.lucene:type=Indexer,index=" + ObjectName.quote(indexPath));
+			if (server.isRegistered(name)){
+				server.unregisterMBean(name);  // left by an earlier indexer in this JVM.
+			}
+			server.registerMBean(this, name);
+			LOG.debug("Registered MBean {}", name);
+		} catch (JMException e) {
+			LOG.warn("Failed registering the indexing MBean", e);
+			name = null;
+		}
+	}
+
+	/**
+	 * Unregister from the platform MBean server.
+	 */
+	public void unregister(){
+		if (name == null){
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e) {
+			LOG.warn("Failed unregistering the indexing MBean", e);
+		}
+		name = null;
+	}
+
+	/**
+	 * Watch the ring and workers of the current pass.
+	 *
+	 * @param ring
+	 * @param workerController
+	 * @param memoryBudget
+	 */
+	public void setPipeline(final RecordRing ring, final WorkerController workerController, final MemoryBudget memoryBudget){
+		this.ring = ring;
+		this.workerController = workerController;
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * @param currentFile	number of the file last started.
+	 * @param totalFiles	files in the load, -1 when not known yet.
+	 */
+	public void setFiles(final int currentFile, final int totalFiles){
+		this.currentFile = currentFile;
+		this.totalFiles = totalFiles;
+	}
+
+	/**
+	 * Count records indexed by a worker.
+	 *
+	 * @param count
+	 * @param byteCount
+	 */
+	public void indexed(final int count, final long byteCount){
+		records.addAndGet(count);
+		bytes.addAndGet(byteCount);
+	}
+
+	/**
+	 * Count the time a worker took to build the documents of a batch and to add them to the writer.
+	 *
+	 * @param documents
+	 * @param buildTime		nanoseconds
+	 * @param addTime		nanoseconds
+	 */
+	public void timed(final int documents, final long buildTime, final long addTime){
+		builtDocuments.addAndGet(documents);
+		buildNanos.addAndGet(buildTime);
+		addNanos.addAndGet(addTime);
+	}
+
+	/**
+	 * Count records read from a file.
+	 *
+	 * @param fileName
+	 * @param count
+	 * @param byteCount
+	 */
+	public void read(final String fileName, final int count, final long byteCount){
+		synchronized(files){
+			FileStats stats = files.get(fileName);
+			if (stats == null){
+				stats = new FileStats();
+				files.put(fileName, stats);
+			}
+			stats.records += count;
+			stats.bytes += byteCount;
+		}
+	}
+
+	/**
+	 * Stop tracking a file read to its end.
+	 *
+	 * @param fileName
+	 */
+	public void finished(final String fileName){
+		synchronized(files){
+			files.remove(fileName);
+		}
+	}
+
+	@Override
+	public long getRecordsIndexed(){
+		return records.get();
+	}
+
+	@Override
+	public long getBytesIndexed(){
+		return bytes.get();
+	}
+
+	private synchronized void updateRates(){
+		long now = System.currentTimeMillis();
+		if (now - rateTime < RATE_MILLIS){
+			return;
+		}
+		long recordCount = records.get();
+		long byteCount = bytes.get();
+		double seconds = (now - rateTime) / 1000.0;
+		recordsPerSecond = (recordCount - rateRecords) / seconds;
+		bytesPerSecond = (byteCount - rateBytes) / seconds;
+		rateTime = now;
+		rateRecords = recordCount;
+		rateBytes = byteCount;
+	}
+
+	@Override
+	public synchronized double getRecordsPerSecond(){
+		updateRates();
+		return recordsPerSecond;
+	}
+
+	@Override
+	public synchronized double getBytesPerSecond(){
+		updateRates();
+		return bytesPerSecond;
+	}
+
+	private double elapsedSeconds(){
+		return Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+	}
+
+	@Override
+	public double getAverageRecordsPerSecond(){
+		return records.get() / elapsedSeconds();
+	}
+
+	@Override
+	public double getAverageBytesPerSecond(){
+		return bytes.get() / elapsedSeconds();
+	}
+
+	@Override
+	public String[] getFiles(){
+		long now = System.currentTimeMillis();
+		List<String> lines = new ArrayList<String>();
+		synchronized(files){
+			for(Map.Entry<String, FileStats> entry : files.entrySet()){
+				FileStats stats = entry.getValue();
+				double seconds = Math.max(1, now - stats.startTime) / 1000.0;
+				lines.add(String.format("%d records, %.0f records/s, %.0f bytes/s : %s", stats.records, stats.records / seconds, stats.bytes / seconds, entry.getKey()));
+			}
+		}
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	@Override
+	public long getQueuedBatches(){
+		RecordRing current = ring;
+		return (current != null ? current.depth() : 0);
+	}
+
+	@Override
+	public long getQueuedBytes(){
+		MemoryBudget current = memoryBudget;
+		return (current != null ? current.getQueuedBytes() : 0);
+	}
+
+	@Override
+	public int getActiveWorkers(){
+		WorkerController current = workerController;
+		return (current != null ? current.getActiveWorkers() : 0);
+	}
+
+	@Override
+	public double getAverageBuildMicros(){
+		long documents = builtDocuments.get();
+		return (documents > 0 ? buildNanos.get() / 1000.0 / documents : 0);
+	}
+
+	@Override
+	public double getAverageAddMicros(){
+		long documents = builtDocuments.get();
+		return (documents > 0 ? addNanos.get() / 1000.0 / documents : 0);
+	}
+
+	@Override
+	public long getWriterRamBytes(){
+		Shards current = shards;
+		return writer.ramBytesUsed() + (current != null ? current.ramBytesUsed() : 0);
+	}
+
+	@Override
+	public int getBufferedDocuments(){
+		Shards current = shards;
+		return writer.numRamDocs() + (current != null ? current.numRamDocs() : 0);
+	}
+
+	@Override
+	public int getMergingSegments(){
+		Shards current = shards;
+		return writer.getMergingSegments().size() + (current != null ? current.getMergingSegments() : 0);
+	}
+
+	@Override
+	public boolean isMergePending(){
+		Shards current = shards;
+		return writer.hasPendingMerges() || (current != null && current.hasPendingMerges());
+	}
+
+	@Override
+	public int getCurrentFile(){
+		return currentFile;
+	}
+
+	@Override
+	public int getTotalFiles(){
+		return totalFiles;
+	}
+
+	private static class FileStats {
+		private final long startTime = System.currentTimeMillis();
+		private long records = 0;
+		private long bytes = 0;
+	}
+
+}
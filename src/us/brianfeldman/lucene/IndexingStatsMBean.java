@@ -0,0 +1,67 @@
+/**
+ *
+ */
+package us.brianfeldman.lucene;
+
+/**
+ * Metrics of a running load, published over JMX; see IndexingStats.
+ *
+ * @author Brian G. Feldman <bgfeldm@yahoo.com>
+ */
+public interface IndexingStatsMBean {
+
+	/** @return records indexed since the start. */
+	public long getRecordsIndexed();
+
+	/** @return bytes of record characters indexed since the start. */
+	public long getBytesIndexed();
+
+	/** @return records indexed per second over the last few seconds. */
+	public double getRecordsPerSecond();
+
+	/** @return bytes indexed per second over the last few seconds. */
+	public double getBytesPerSecond();
+
+	/** @return records indexed per second since the start. */
+	public double getAverageRecordsPerSecond();
+
+	/** @return bytes indexed per second since the start. */
+	public double getAverageBytesPerSecond();
+
+	/** @return each file being read: records read, records/s, bytes/s and path. */
+	public String[] getFiles();
+
+	/** @return batches queued for the worker threads. */
+	public long getQueuedBatches();
+
+	/** @return bytes of records queued for the worker threads. */
+	public long getQueuedBytes();
+
+	/** @return worker threads taking batches. */
+	public int getActiveWorkers();
+
+	/** @return average microseconds building a document. */
+	public double getAverageBuildMicros();
+
+	/** @return average microseconds adding a document to the writer. */
+	public double getAverageAddMicros();
+
+	/** @return bytes of documents buffered by the index writers. */
+	public long getWriterRamBytes();
+
+	/** @return documents buffered by the index writers, not yet flushed. */
+	public int getBufferedDocuments();
+
+	/** @return segments being merged. */
+	public int getMergingSegments();
+
+	/** @return whether merges are waiting for a merge thread. */
+	public boolean isMergePending();
+
+	/** @return number of the file last started. */
+	public int getCurrentFile();
+
+	/** @return files in the load; -1 while the directory is still being listed. */
+	public int getTotalFiles();
+
+}
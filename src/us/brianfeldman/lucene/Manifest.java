@@ -0,0 +1,162 @@
+/**
+ *
+ */
+package us.brianfeldman.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * Manifest of the files indexed, so a load run again over the same files indexes only what changed.
+ *
+ * Each file is kept in the commit user data as file:<absolute path> = size,last modified,content hash.
+ * A file whose size and last modified time match is unchanged without reading it, and one whose size
+ * differs has changed. Only when just the last modified time moved is the file read for its content hash,
+ * so a file merely touched or copied over is not indexed again. New and resized files are recorded without
+ * a hash, which keeps hashing off the path of a first load; such a file is indexed again the first time it
+ * is touched, and has a hash from then on.
+ *
+ * @author Brian G. Feldman <bgfeldm@yahoo.com>
+ */
+public class Manifest {
+	private static final Logger LOG = LoggerFactory.getLogger(Manifest.class);
+
+	/** Prefix of the commit user data keys holding the entry of a file. */
+	public static final String FILE_PREFIX = "file:";
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	/**
+	 * @param commitData	user data of the last commit.
+	 */
+	public Manifest(final Map<String, String> commitData){
+		for(Map.Entry<String, String> data : commitData.entrySet()){
+			if (data.getKey().startsWith(FILE_PREFIX)){
+				entries.put(data.getKey().substring(FILE_PREFIX.length()), Entry.parse(data.getValue()));
+			}
+		}
+	}
+
+	/**
+	 * @param file
+	 * @return whether the file has been indexed before.
+	 */
+	public synchronized boolean contains(final File file){
+		return entries.containsKey(file.getAbsolutePath());
+	}
+
+	/**
+	 * Check whether a file changed since it was indexed.
+	 *
+	 * A file with the same content under a new last modified time has its entry updated.
+	 *
+	 * @param file
+	 * @return entry of the file as it is now, or null when it is unchanged.
+	 * @throws IOException
+	 */
+	public Entry changed(final File file) throws IOException {
+		Entry previous;
+		synchronized(this){
+			previous = entries.get(file.getAbsolutePath());
+		}
+		Entry current = describe(file);
+		if (previous == null || previous.size != current.size){
+			return current;
+		}
+		if (previous.lastModified == current.lastModified){
+			return null;
+		}
+
+		current = new Entry(current.size, current.lastModified, Files.hash(file, Hashing.murmur3_128()).toString());
+		if (current.hash.equals(previous.hash)){
+			LOG.debug("Content unchanged : {}", file.getAbsolutePath());
+			put(file, current);
+			return null;
+		}
+		return current;
+	}
+
+	/**
+	 * Take a file's size and last modified time, without reading it for its content hash.
+	 *
+	 * @param file
+	 * @return entry
+	 */
+	public static Entry describe(final File file){
+		return new Entry(file.length(), file.lastModified(), "");
+	}
+
+	/**
+	 * Record a file as indexed.
+	 *
+	 * @param file
+	 * @param entry		entry taken before the file was read.
+	 */
+	public synchronized void put(final File file, final Entry entry){
+		entries.put(file.getAbsolutePath(), entry);
+	}
+
+	/**
+	 * Add the manifest to the user data of a commit.
+	 *
+	 * @param commitData
+	 */
+	public synchronized void addTo(final Map<String, String> commitData){
+		for(Map.Entry<String, Entry> entry : entries.entrySet()){
+			commitData.put(FILE_PREFIX + entry.getKey(), entry.getValue().toString());
+		}
+	}
+
+	/**
+	 * Size, last modified time and content hash of a file.
+	 */
+	public static class Entry {
+		private final long size;
+		private final long lastModified;
+		private final String hash;	// empty when not hashed.
+
+		Entry(final long size, final long lastModified, final String hash){
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+
+		/**
+		 * @param value		as written by toString(); the hash may be left out.
+		 * @return entry
+		 */
+		static Entry parse(final String value){
+			String[] values = value.split(",", -1);
+			return new Entry(Long.parseLong(values[0]), Long.parseLong(values[1]), (values.length > 2 ? values[2] : ""));
+		}
+
+		/**
+		 * @param other
+		 * @return whether both have the same size and last modified time.
+		 */
+		boolean sameStat(final Entry other){
+			return size == other.size && lastModified == other.lastModified;
+		}
+
+		/**
+		 * @return size of the file.
+		 */
+		long getSize(){
+			return size;
+		}
+
+		@Override
+		public String toString(){
+			return size + "," + lastModified + "," + hash;
+		}
+	}
+
+}
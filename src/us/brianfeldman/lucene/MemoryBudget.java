@@ -0,0 +1,105 @@
+/**
+ *
+ */
+package us.brianfeldman.lucene;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.IndexWriter;
+
+/**
+ * MemoryBudget holds the reader threads back while the records queued for the worker threads, together
+ * with the documents buffered by the index writers, take more bytes than the budget.
+ *
+ * The ring bounds the number of queued batches, not their size: a file of 10 KB rows queues a hundred
+ * times the bytes of a file of 100 byte rows. So readers also wait on the bytes queued, counted from the
+ * characters of each batch, plus the RAM the writers use, which grows until they flush. A reader always
+ * goes ahead when nothing is queued, so a writer holding the whole budget by itself does not stop the load.
+ *
+ * @author Brian G. Feldman <bgfeldm@yahoo.com>
+ */
+public class MemoryBudget {
+
+	private final long limit;
+	private final IndexWriter writer;
+	private final Shards shards;
+	private final AtomicLong queued = new AtomicLong();
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final Object monitor = new Object();
+
+	/**
+	 * @param limit		bytes of queued records and writer RAM at which readers wait.
+	 * @param writer	writer of the index.
+	 * @param shards	shards of the index, or null.
+	 */
+	public MemoryBudget(final long limit, final IndexWriter writer, final Shards shards){
+		this.limit = limit;
+		this.writer = writer;
+		this.shards = shards;
+	}
+
+	/**
+	 * @return bytes at which readers wait.
+	 */
+	public long getLimit(){
+		return limit;
+	}
+
+	/**
+	 * @return bytes of records queued for the workers.
+	 */
+	public long getQueuedBytes(){
+		return queued.get();
+	}
+
+	/**
+	 * @return bytes of documents buffered by the writers.
+	 */
+	public long getWriterBytes(){
+		return writer.ramBytesUsed() + (shards != null ? shards.ramBytesUsed() : 0);
+	}
+
+	/**
+	 * Wait until there is room for more records. Called by a reader before it reads a batch.
+	 */
+	public void acquire(){
+		while(queued.get() > 0 && queued.get() + getWriterBytes() >= limit){
+			synchronized(monitor){
+				waiting.incrementAndGet();
+				try {
+					monitor.wait(10);  // bounded, as writer RAM drops on a flush without a signal.
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				} finally {
+					waiting.decrementAndGet();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Count records queued by a reader.
+	 *
+	 * @param bytes
+	 */
+	public void queued(final long bytes){
+		queued.addAndGet(bytes);
+	}
+
+	/**
+	 * Count records indexed by a worker, waking waiting readers.
+	 *
+	 * @param bytes
+	 */
+	public void indexed(final long bytes){
+		queued.addAndGet(-bytes);
+		if (waiting.get() > 0){
+			synchronized(monitor){
+				monitor.notifyAll();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,227 @@
+/**
+ *
+ */
+package us.brianfeldman.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexableField;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import us.brianfeldman.fileformat.csv.CharRecord;
+import us.brianfeldman.fileformat.csv.RecordBatch;
+
+/**
+ * RecordBatchConsumer
+ *
+ * Builds the Lucene Documents for a whole block of records,
+ * then adds them to the shared Lucene writer in a single call.
+ *
+ * Documents are reused by each thread from one batch to the next, as long as the header stays the same.
+ * Indexed fields are fed straight from the record's char buffer through reusable Readers,
+ * so only the stored values are copied into Strings. Numeric and date columns are indexed
+ * as numeric fields instead, without analysis; their values are still added to "_ALL" as written,
+ * so a free text search finds an id or an amount as it did before columns were typed.
+ * The batch is indexed in place, in its slot of the RecordRing; once the worker releases
+ * the slot a reader refills the same batch.
+ *
+ * @author Brian G. Feldman <bgfeldm@yahoo.com>
+ */
+public class RecordBatchConsumer {
+	private static final Logger LOG = LoggerFactory.getLogger(RecordBatchConsumer.class);
+
+	private static final ThreadLocal<List<ReusableDocument>> tlocalDocuments = new ThreadLocal<List<ReusableDocument>>();
+	private static final ThreadLocal<String[]> tlocalHeader = new ThreadLocal<String[]>();
+	private static final ThreadLocal<ColumnType[]> tlocalTypes = new ThreadLocal<ColumnType[]>();
+
+	private final IndexWriter writer;
+	private final RecordBatch batch;
+	private final String indexTime;
+	private final ColumnType[] types;
+	private final Schema schema;
+
+	/**
+	 * Constructor
+	 *
+	 * @param writer
+	 * @param batch			records to index.
+	 * @param indexTime		value of the _index_time field.
+	 */
+	public RecordBatchConsumer(IndexWriter writer, RecordBatch batch, String indexTime){
+		this(writer, batch, indexTime, null);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param writer
+	 * @param batch			records to index.
+	 * @param indexTime		value of the _index_time field.
+	 * @param types			type of each column in header order, null to index all as TEXT.
+	 */
+	public RecordBatchConsumer(IndexWriter writer, RecordBatch batch, String indexTime, ColumnType[] types){
+		this(writer, batch, indexTime, types, null);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param writer
+	 * @param batch			records to index.
+	 * @param indexTime		value of the _index_time field.
+	 * @param types			type of each column in header order, null to index all as TEXT.
+	 * @param schema		counts the values which do not parse as their column's type, may be null.
+	 */
+	public RecordBatchConsumer(IndexWriter writer, RecordBatch batch, String indexTime, ColumnType[] types, Schema schema){
+		this.writer = writer;
+		this.batch = batch;
+		this.indexTime = indexTime;
+		this.types = (types != null ? types : textTypes(batch.getHeader().length));
+		this.schema = schema;
+	}
+
+	private static ColumnType[] textTypes(int columns){
+		ColumnType[] types = new ColumnType[columns];
+		Arrays.fill(types, ColumnType.TEXT);
+		return types;
+	}
+
+	/**
+	 * Build Lucene Documents for every record in the batch.
+	 *
+	 * @return Documents, one per record, as lists of fields.
+	 */
+	public List<List<IndexableField>> buildLuceneDocuments(){
+		String[] header = batch.getHeader();
+
+		List<ReusableDocument> documents = tlocalDocuments.get();
+		if (documents == null || !Arrays.equals(header, tlocalHeader.get()) || !Arrays.equals(types, tlocalTypes.get())){
+			LOG.debug("Initializing documents.");
+			documents = new ArrayList<ReusableDocument>();
+			tlocalDocuments.set(documents);
+			tlocalHeader.set(header);
+			tlocalTypes.set(types);
+		}
+
+		while(documents.size() < batch.size()){
+			documents.add( new ReusableDocument(header, types) );
+		}
+
+		List<List<IndexableField>> built = new ArrayList<List<IndexableField>>(batch.size());
+		for(int r=0; r < batch.size(); r++){
+			ReusableDocument document = documents.get(r);
+			document.set(batch.getRecord(r), indexTime, batch.getFileName(), schema);
+			built.add(document.fields);
+		}
+
+		return built;
+	}
+
+	/**
+	 * Add Documents to Index.
+	 *
+	 * Lucene rolls back a writer which runs out of memory, losing what it buffered since the last commit,
+	 * so the error is reported like any other write failure; the load then fails rather than commit.
+	 *
+	 * @param documents
+	 * @throws IOException when the documents could not be written; the records of the batch are lost.
+	 */
+	public void addToIndex(List<List<IndexableField>> documents) throws IOException {
+		try {
+			writer.addDocuments(documents);
+		} catch (IOException e) {
+			throw new IOException("Failed writing documents " + describeRecords(), e);
+		} catch(OutOfMemoryError e){
+			LOG.error("Out of memory writing documents {}", describeRecords());
+			throw new IOException("Out of memory writing documents " + describeRecords(), e);
+		}
+	}
+
+	private String describeRecords(){
+		return batch.getFileName() + ":" + batch.getLineNumber(0) + "-" + batch.getLineNumber(batch.size()-1);
+	}
+
+	/**
+	 * Document fields and field Readers kept for reuse.
+	 *
+	 * Each TEXT column has a stored field plus two analyzed fields, one under the column name and
+	 * one under the catch all field "_ALL", each reading the column value through its own Reader.
+	 * Other columns have a stored field holding the value as written, the same "_ALL" field, plus
+	 * a numeric field left out of a document when the value is empty or does not parse.
+	 */
+	private static class ReusableDocument {
+		private final List<IndexableField> fields = new ArrayList<IndexableField>();
+		private final ColumnType[] types;
+		private final StoredField[] storedFields;
+		private final Field[] indexedFields;
+		private final Field[] allFields;
+		private final CharSequenceReader[] indexedReaders;
+		private final CharSequenceReader[] allReaders;
+		private final StringField indexTimeField = new StringField("_index_time", "", Store.YES);
+		private final StringField docIdField = new StringField("_doc_id", "", Store.YES);
+		private final StringField fileField = new StringField("_file", "", Store.NO);  // deletes a file's records when it changes.
+
+		ReusableDocument(String[] header, ColumnType[] types){
+			this.types = types;
+			storedFields = new StoredField[header.length];
+			indexedFields = new Field[header.length];
+			allFields = new Field[header.length];
+			indexedReaders = new CharSequenceReader[header.length];
+			allReaders = new CharSequenceReader[header.length];
+
+			for(int i=0; i < header.length; i++){
+				storedFields[i] = new StoredField(header[i], "");
+				allReaders[i] = new CharSequenceReader();
+				allFields[i] = new Field("_ALL", allReaders[i], TextField.TYPE_NOT_STORED);  // Catch all field for searching only.
+				if (types[i].isNumeric()){
+					indexedFields[i] = types[i].newField(header[i]);
+					continue;
+				}
+				indexedReaders[i] = new CharSequenceReader();
+				indexedFields[i] = new Field(header[i], indexedReaders[i], TextField.TYPE_NOT_STORED);
+			}
+		}
+
+		void set(CharRecord record, String indexTime, String fileName, Schema schema){
+			fields.clear();
+			for(int i=0; i < storedFields.length; i++){
+				CharSequence value = (i < record.getFieldCount() ? record.getField(i) : "");
+				String stored = value.toString();
+				storedFields[i].setStringValue( stored );
+				fields.add(storedFields[i]);
+				allFields[i].setReaderValue( allReaders[i].reset(value) );
+				fields.add(allFields[i]);
+
+				if (types[i].isNumeric()){
+					Number number = types[i].parse(stored);
+					if (number != null){
+						types[i].setValue(indexedFields[i], number);
+						fields.add(indexedFields[i]);
+					} else if (schema != null && !stored.isEmpty()){
+						schema.unparsed(storedFields[i].name(), stored, fileName+":"+String.valueOf(record.getLineNumber()));
+					}
+					continue;
+				}
+				indexedFields[i].setReaderValue( indexedReaders[i].reset(value) );
+				fields.add(indexedFields[i]);
+			}
+			indexTimeField.setStringValue( indexTime );
+			docIdField.setStringValue( fileName+":"+String.valueOf(record.getLineNumber()) );
+			fileField.setStringValue( fileName );
+			fields.add(indexTimeField);
+			fields.add(docIdField);
+			fields.add(fileField);
+		}
+	}
+
+}
@@ -0,0 +1,300 @@
+/**
+ *
+ */
+package us.brianfeldman.lucene;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import us.brianfeldman.fileformat.csv.RecordBatch;
+
+/**
+ * RecordRing hands records from the reader threads to the worker threads through a fixed ring of slots.
+ *
+ * Every slot holds a RecordBatch allocated up front, which a reader fills in place and a worker indexes
+ * in place, so once the batches have grown to the size of the records nothing is allocated per record
+ * or per batch. Readers claim slots in order and workers take them in order, each side with a compare
+ * and swap on its own counter; a slot's sequence number tells whether it is free, filled or being indexed.
+ * No lock is taken on either side, and a reader never indexes records itself; when the ring is full it
+ * waits for a worker to release a slot, which is what bounds the memory held by queued records.
+ *
+ * How a thread waits for a slot is up to the WaitStrategy: spin, yield, sleep or block.
+ *
+ * Sequence of slot i, with size slots:
+ *   n            free for the reader claiming sequence n
+ *   n + 1        filled, for the worker taking sequence n
+ *   n + size     released, free for sequence n + size
+ *
+ * @author Brian G. Feldman <bgfeldm@yahoo.com>
+ */
+public class RecordRing {
+
+	private final Slot[] slots;
+	private final int mask;
+	private final WaitStrategy waitStrategy;
+	private final AtomicLong claimed = new AtomicLong();  // next sequence for a reader.
+	private final AtomicLong taken = new AtomicLong();  // next sequence for a worker.
+	private volatile boolean shutdown = false;
+
+	/**
+	 * @param size			number of slots, rounded up to a power of 2.
+	 * @param batchSize		capacity of the batch in each slot.
+	 * @param waitStrategy
+	 */
+	public RecordRing(final int size, final int batchSize, final WaitStrategy waitStrategy){
+		int capacity = Integer.highestOneBit(Math.max(2, size) - 1) << 1;
+		this.slots = new Slot[capacity];
+		this.mask = capacity - 1;
+		this.waitStrategy = waitStrategy;
+		for(int i=0; i < capacity; i++){
+			slots[i] = new Slot(i, batchSize);
+		}
+	}
+
+	/**
+	 * @return number of slots.
+	 */
+	public int size(){
+		return slots.length;
+	}
+
+	/**
+	 * @return slots claimed by readers and not yet taken by a worker.
+	 */
+	public long depth(){
+		return Math.max(0, claimed.get() - taken.get());
+	}
+
+	/**
+	 * Claim the next slot to fill, waiting while every slot is filled or being indexed.
+	 * Safe to call from several reader threads at once.
+	 *
+	 * @return sequence of the slot, to be published once filled.
+	 */
+	public long claim(){
+		int attempts = 0;
+		while(true){
+			long sequence = claimed.get();
+			long diff = slots[(int) sequence & mask].sequence - sequence;
+			if (diff == 0){
+				if (claimed.compareAndSet(sequence, sequence + 1)){
+					return sequence;
+				}
+			} else if (diff < 0){
+				waitStrategy.idle(attempts++);  // full.
+			}
+		}
+	}
+
+	/**
+	 * @param sequence
+	 * @return slot of the sequence.
+	 */
+	public Slot get(final long sequence){
+		return slots[(int) sequence & mask];
+	}
+
+	/**
+	 * Hand a filled slot to the worker threads.
+	 *
+	 * @param sequence
+	 */
+	public void publish(final long sequence){
+		slots[(int) sequence & mask].sequence = sequence + 1;
+		waitStrategy.signal();
+	}
+
+	/**
+	 * Take the next filled slot, waiting while there is none.
+	 * Safe to call from several worker threads at once.
+	 *
+	 * @return sequence of the slot, to be released once indexed; -1 once shut down and every slot is taken.
+	 */
+	public long take(){
+		int attempts = 0;
+		while(true){
+			long sequence = taken.get();
+			long diff = slots[(int) sequence & mask].sequence - (sequence + 1);
+			if (diff == 0){
+				if (taken.compareAndSet(sequence, sequence + 1)){
+					return sequence;
+				}
+			} else if (diff < 0){
+				if (shutdown && claimed.get() == sequence){
+					return -1;
+				}
+				waitStrategy.idle(attempts++);  // empty.
+			}
+		}
+	}
+
+	/**
+	 * Free an indexed slot for the reader threads to fill again.
+	 *
+	 * @param sequence
+	 */
+	public void release(final long sequence){
+		Slot slot = slots[(int) sequence & mask];
+		slot.sequence = sequence + slots.length;
+		waitStrategy.signal();
+	}
+
+	/**
+	 * Let the worker threads stop once every slot published is taken; call after the readers are done.
+	 */
+	public void shutdown(){
+		shutdown = true;
+		waitStrategy.signal();
+	}
+
+	/**
+	 * A slot of the ring: a batch of records with their column types.
+	 */
+	public static class Slot {
+		private volatile long sequence;
+		private final RecordBatch batch;
+		private ColumnType[] types;
+		private long bytes;
+
+		Slot(final long sequence, final int batchSize){
+			this.sequence = sequence;
+			this.batch = new RecordBatch(Math.max(1, batchSize));
+		}
+
+		/**
+		 * @return reusable batch of the slot, to be filled by the reader.
+		 */
+		public RecordBatch getBatch(){
+			return batch;
+		}
+
+		/**
+		 * @return column types of the batch.
+		 */
+		public ColumnType[] getTypes(){
+			return types;
+		}
+
+		/**
+		 * @param types		column types of the batch.
+		 */
+		public void setTypes(final ColumnType[] types){
+			this.types = types;
+		}
+
+		/**
+		 * @return bytes of the records queued in the slot.
+		 */
+		public long getBytes(){
+			return bytes;
+		}
+
+		/**
+		 * @param bytes		bytes of the records queued in the slot.
+		 */
+		public void setBytes(final long bytes){
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * How a reader or worker thread waits for a slot.
+	 */
+	public abstract static class WaitStrategy {
+
+		/**
+		 * Wait a little before trying again.
+		 *
+		 * @param attempts		times waited so far for the same slot.
+		 */
+		public abstract void idle(int attempts);
+
+		/**
+		 * Wake waiting threads, after a slot is published or released.
+		 */
+		public void signal(){
+		}
+
+		/**
+		 * Get a wait strategy by name:
+		 *
+		 *   spin     keeps trying; lowest latency, a core per waiting thread.
+		 *   yield    spins a little, then yields the core to other threads.
+		 *   sleep    spins, yields, then parks for 100 microseconds at a time.
+		 *   block    spins a little, then parks until signalled; least cpu while idle.
+		 *
+		 * @param name
+		 * @return wait strategy
+		 */
+		public static WaitStrategy forName(final String name){
+			switch(name.toLowerCase()){
+				case "spin":
+					return new WaitStrategy(){
+						@Override
+						public void idle(int attempts){
+						}
+					};
+				case "yield":
+					return new WaitStrategy(){
+						@Override
+						public void idle(int attempts){
+							if (attempts >= 100){
+								Thread.yield();
+							}
+						}
+					};
+				case "sleep":
+					return new WaitStrategy(){
+						@Override
+						public void idle(int attempts){
+							if (attempts >= 200){
+								LockSupport.parkNanos(100000);
+							} else if (attempts >= 100){
+								Thread.yield();
+							}
+						}
+					};
+				case "block":
+					return new BlockingWaitStrategy();
+				default:
+					throw new IllegalArgumentException("Unknown wait strategy: " + name);
+			}
+		}
+	}
+
+	/**
+	 * Parks waiting threads until signalled. Publishing and releasing only take the monitor while a thread waits.
+	 */
+	private static class BlockingWaitStrategy extends WaitStrategy {
+		private final Object monitor = new Object();
+		private final AtomicInteger waiting = new AtomicInteger();
+
+		@Override
+		public void idle(int attempts){
+			if (attempts < 100){
+				return;
+			}
+			synchronized(monitor){
+				waiting.incrementAndGet();
+				try {
+					monitor.wait(10);  // bounded, as a signal may come between the caller's check and this wait.
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					waiting.decrementAndGet();
+				}
+			}
+		}
+
+		@Override
+		public void signal(){
+			if (waiting.get() > 0){
+				synchronized(monitor){
+					monitor.notifyAll();
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,221 @@
+/**
+ *
+ */
+package us.brianfeldman.lucene;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schema keeps the type of every column indexed so far.
+ *
+ * The type of a new column is taken from the override file when listed there, otherwise
+ * inferred from a sample of the file's records: the first of LONG, DOUBLE and DATE that every
+ * non empty sampled value matches, or TEXT. INT is only used when set in the override file, so
+ * a column whose sample happens to fit an int does not overflow on a later file. Once a column
+ * has a type it keeps it, so all files index the column the same way and queries can rely on it.
+ * A later value which does not parse as the column's type is still stored, but not indexed;
+ * the first of each column is logged, and the count of each column when the load ends.
+ *
+ * The schema is kept as a properties file, column = type, in the index directory;
+ * the override file has the same format.
+ *
+ * @author Brian G. Feldman <bgfeldm@yahoo.com>
+ */
+public class Schema {
+	private static final Logger LOG = LoggerFactory.getLogger(Schema.class);
+
+	/** Name of the schema file within the index directory. */
+	public static final String FILE_NAME = "schema.properties";
+
+	private static final ColumnType[] INFERRED = {ColumnType.LONG, ColumnType.DOUBLE, ColumnType.DATE};
+
+	private final Map<String, ColumnType> columns = new LinkedHashMap<String, ColumnType>();
+	private final Map<String, ColumnType> overrides = new LinkedHashMap<String, ColumnType>();
+	private boolean infer = true;
+	private boolean changed = false;
+	private final ConcurrentMap<String, AtomicLong> unparsed = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * Load the schema of an index directory.
+	 *
+	 * @param indexDirectory
+	 * @return schema, empty when the index has none yet.
+	 * @throws IOException
+	 */
+	public static Schema load(final File indexDirectory) throws IOException {
+		Schema schema = new Schema();
+		File file = new File(indexDirectory, FILE_NAME);
+		if (file.exists()){
+			schema.columns.putAll(read(file));
+		}
+		return schema;
+	}
+
+	/**
+	 * Load column types taking precedence over inferred ones.
+	 *
+	 * @param file		properties file of column = type.
+	 * @throws IOException
+	 */
+	public synchronized void loadOverrides(final File file) throws IOException {
+		overrides.putAll(read(file));
+	}
+
+	/**
+	 * @param infer		false to index every column not overridden as TEXT.
+	 */
+	public synchronized void setInfer(final boolean infer){
+		this.infer = infer;
+	}
+
+	private static Map<String, ColumnType> read(final File file) throws IOException {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+
+		Map<String, ColumnType> types = new LinkedHashMap<String, ColumnType>();
+		for(String column : props.stringPropertyNames()){
+			try {
+				types.put(column, ColumnType.fromName(props.getProperty(column)));
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Unknown column type '" + props.getProperty(column) + "' for column " + column + " in " + file.getAbsolutePath(), e);
+			}
+		}
+		return types;
+	}
+
+	/**
+	 * Store the schema into an index directory, when it changed.
+	 *
+	 * @param indexDirectory
+	 * @throws IOException
+	 */
+	public synchronized void store(final File indexDirectory) throws IOException {
+		if (!changed){
+			return;
+		}
+		Properties props = new Properties();
+		for(Map.Entry<String, ColumnType> entry : columns.entrySet()){
+			props.setProperty(entry.getKey(), entry.getValue().name().toLowerCase());
+		}
+		OutputStream out = new FileOutputStream(new File(indexDirectory, FILE_NAME));
+		try {
+			props.store(out, "Csv2Lucene column types: text, int, long, double or date");
+		} finally {
+			out.close();
+		}
+		changed = false;
+	}
+
+	/**
+	 * Get the type of each column of a file, deciding the type of columns not seen before.
+	 *
+	 * @param header	column names.
+	 * @param sample	first records of the file.
+	 * @return types, in header order.
+	 */
+	public synchronized ColumnType[] resolve(final String[] header, final List<String[]> sample){
+		ColumnType[] types = new ColumnType[header.length];
+		for(int c=0; c < header.length; c++){
+			ColumnType type = columns.get(header[c]);
+			if (type == null){
+				type = overrides.get(header[c]);
+				if (type == null){
+					type = (infer ? infer(c, sample) : ColumnType.TEXT);
+				}
+				LOG.info("Column {} indexed as {}", header[c], type);
+				columns.put(header[c], type);
+				changed = true;
+			}
+			types[c] = type;
+		}
+		return types;
+	}
+
+	private static ColumnType infer(final int column, final List<String[]> sample){
+		boolean[] possible = new boolean[INFERRED.length];
+		Arrays.fill(possible, true);
+		int values = 0;
+		for(String[] record : sample){
+			if (column >= record.length || record[column].isEmpty()){
+				continue;
+			}
+			values++;
+			for(int t=0; t < INFERRED.length; t++){
+				if (possible[t] && !INFERRED[t].matches(record[column])){
+					possible[t] = false;
+				}
+			}
+		}
+		if (values > 0){
+			for(int t=0; t < INFERRED.length; t++){
+				if (possible[t]){
+					return INFERRED[t];
+				}
+			}
+		}
+		return ColumnType.TEXT;
+	}
+
+	/**
+	 * Count a value which does not parse as its column's type; it is stored, but not indexed.
+	 * The first of each column is logged.
+	 *
+	 * @param column
+	 * @param value
+	 * @param docId		_doc_id of the record.
+	 */
+	public void unparsed(final String column, final String value, final String docId){
+		AtomicLong count = unparsed.get(column);
+		if (count == null){
+			AtomicLong first = new AtomicLong();
+			count = unparsed.putIfAbsent(column, first);
+			if (count == null){
+				count = first;
+				LOG.warn("Value '{}' of column {} at {} does not parse as {}; stored, but not indexed", value, column, docId, getType(column));
+			}
+		}
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Log the number of values of each column which did not parse as its type.
+	 */
+	public void logUnparsed(){
+		for(Map.Entry<String, AtomicLong> entry : unparsed.entrySet()){
+			LOG.warn("Column {}: {} values did not parse as {}; stored, but not indexed", entry.getKey(), entry.getValue().get(), getType(entry.getKey()));
+		}
+	}
+
+	/**
+	 * Get the type of a column.
+	 *
+	 * @param column
+	 * @return type, TEXT for columns not seen.
+	 */
+	public synchronized ColumnType getType(final String column){
+		ColumnType type = columns.get(column);
+		return (type != null ? type : ColumnType.TEXT);
+	}
+
+}
@@ -0,0 +1,69 @@
+/**
+ *
+ */
+package us.brianfeldman.lucene;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.Version;
+
+/**
+ * SchemaQueryParser turns terms and ranges on numeric and date columns into numeric range queries.
+ *
+ *   amount:[10 TO 20]              10 <= amount <= 20
+ *   amount:{10 TO *]               amount > 10
+ *   date:[2015-01-01 TO 2015-02-01}
+ *   id:42                          exactly 42
+ *
+ * Other columns are parsed as usual.
+ *
+ * @author Brian G. Feldman <bgfeldm@yahoo.com>
+ */
+public class SchemaQueryParser extends QueryParser {
+
+	private final Schema schema;
+
+	/**
+	 * @param matchVersion
+	 * @param defaultField
+	 * @param analyzer
+	 * @param schema		column types of the index.
+	 */
+	public SchemaQueryParser(Version matchVersion, String defaultField, Analyzer analyzer, Schema schema){
+		super(matchVersion, defaultField, analyzer);
+		this.schema = schema;
+	}
+
+	@Override
+	protected Query getRangeQuery(String field, String part1, String part2, boolean startInclusive, boolean endInclusive) throws ParseException {
+		ColumnType type = schema.getType(field);
+		if (!type.isNumeric()){
+			return super.getRangeQuery(field, part1, part2, startInclusive, endInclusive);
+		}
+		return type.newRangeQuery(field, parse(type, field, part1), parse(type, field, part2), startInclusive, endInclusive);
+	}
+
+	@Override
+	protected Query getFieldQuery(String field, String queryText, boolean quoted) throws ParseException {
+		ColumnType type = schema.getType(field);
+		if (!type.isNumeric()){
+			return super.getFieldQuery(field, queryText, quoted);
+		}
+		Number value = parse(type, field, queryText);
+		return type.newRangeQuery(field, value, value, true, true);
+	}
+
+	private static Number parse(ColumnType type, String field, String text) throws ParseException {
+		if (text == null || "*".equals(text)){
+			return null;  // open ended.
+		}
+		Number value = type.parse(text);
+		if (value == null){
+			throw new ParseException("'" + text + "' is not a valid " + type.name().toLowerCase() + " value for column " + field);
+		}
+		return value;
+	}
+
+}
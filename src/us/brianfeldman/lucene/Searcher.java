@@ -5,6 +5,7 @@ package us.brianfeldman.lucene;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
@@ -14,7 +15,6 @@ import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.AtomicReader;
 import org.apache.lucene.index.AtomicReaderContext;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.IndexReader;
@@ -24,14 +24,18 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopScoreDocCollector;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.NIOFSDirectory;
 import org.apache.lucene.util.Version;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Stopwatch;
 
+import us.brianfeldman.fileformat.csv.CSVInput;
+import us.brianfeldman.fileformat.csv.MappedCSVReader;
+import us.brianfeldman.fileformat.csv.RecordIterator;
+import us.brianfeldman.fileformat.csv.RecordOffsets;
+import us.brianfeldman.fileformat.csv.SamplingReaderFactory;
+
 /**
  * Search Lucene Index
  *
@@ -50,6 +54,7 @@ public class Searcher {
 	
 	private static IndexReader reader;
 	private static IndexSearcher searcher;
+	private static Schema schema;
 
 	private Stopwatch stopwatch = Stopwatch.createUnstarted();
 	private int indexDocumentCount;
@@ -73,13 +78,17 @@ public class Searcher {
 	 */
 	public IndexSearcher getIndexSearcher(){
 		if (reader == null || searcher == null){
-			Directory directory;
 			try {
-				directory = NIOFSDirectory.open(new File(config.getIndexPath()));
-				reader = DirectoryReader.open(directory);
+				reader = Shards.openReader(new File(config.getIndexPath()));  // with its shards not merged, if any.
 			} catch (IOException e) {
 				LOG.error("Failed to open Index Searcher", e);
 			}
+			try {
+				schema = Schema.load(new File(config.getIndexPath()));
+			} catch (IOException e) {
+				LOG.error("Failed to load column schema; searching all columns as text", e);
+				schema = new Schema();
+			}
 			indexDocumentCount = reader.numDocs();
 			searcher = new IndexSearcher(reader);
 		}
@@ -123,7 +132,7 @@ public class Searcher {
 		int offset = page * pageSize;
 		TopScoreDocCollector collector = TopScoreDocCollector.create(offset+pageSize, true);
 		
-		QueryParser qparser = new QueryParser(LUCENE_VERSION, DEFAULT_SEARCH_FIELD, analyzer);
+		QueryParser qparser = new SchemaQueryParser(LUCENE_VERSION, DEFAULT_SEARCH_FIELD, analyzer, schema);  // numeric ranges on typed columns.
 		qparser.setAllowLeadingWildcard(true);
 		qparser.setDefaultOperator( config.getDefaultSearchOperator() );
 
@@ -145,6 +154,47 @@ public class Searcher {
 	
 
 
+	/**
+	 * Read a hit's record back from its csv file, by the file name and line number of its _doc_id.
+	 * 
+	 * When the file has a current record offset sidecar, reading starts at the nearest kept record
+	 * rather than at the top of the file.
+	 * 
+	 * @param doc	hit
+	 * @return record, or null when the file is gone, compressed, or not read by the MappedCSVReader.
+	 * @throws IOException
+	 */
+	public String[] getSourceRecord(Document doc) throws IOException {
+		String docId = doc.get("_doc_id");
+		int split = (docId != null ? docId.lastIndexOf(':') : -1);
+		if (split < 0){
+			return null;
+		}
+		File file = new File(docId.substring(0, split));
+		int lineNumber = Integer.parseInt(docId.substring(split + 1));
+		if (!file.isFile() || CSVInput.isGzip(file)){
+			return null;
+		}
+
+		SamplingReaderFactory factory = new SamplingReaderFactory();
+		factory.setCharset(config.getIndexerInputEncoding());
+		RecordIterator prototype = factory.newReader(file);
+		if (!(prototype instanceof MappedCSVReader)){
+			return null;
+		}
+
+		RecordOffsets offsets = RecordOffsets.openCurrent(new File(config.getIndexPath(), RecordOffsets.DIRECTORY_NAME), file);
+		MappedCSVReader csvReader = RecordOffsets.openAtLine((MappedCSVReader) prototype, file, lineNumber, offsets);
+		try {
+			if (csvReader.hasNext() && csvReader.getRecordLineNumber() == lineNumber){
+				return csvReader.next();
+			}
+			return null;
+		} finally {
+			csvReader.close();
+		}
+	}
+
 	/**
 	 * Close
 	 * @throws IOException
@@ -182,6 +232,14 @@ public class Searcher {
 		SearchResults results = search.find(queryStr, 0, 25);
 		results.stdout();
 
+		// Source record of the top hit, read back from its csv file.
+		if (results.size() > 0){
+			String[] record = search.getSourceRecord(results.getDocument(0));
+			if (record != null){
+				System.out.println(Arrays.toString(record));
+			}
+		}
+
 		// Searchable Fields.
 		Set<String> fields = search.getSearchableFields();
 		System.out.println(fields);
@@ -0,0 +1,352 @@
+/**
+ *
+ */
+package us.brianfeldman.lucene;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexDeletionPolicy;
+import org.apache.lucene.index.IndexNotFoundException;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * Shards are independent indexes below the index directory, each with its own IndexWriter, so the
+ * worker threads are not all held up by the flushes and stalls of a single writer.
+ *
+ * Batches of records are routed round robin, or by file so all records of a file land in one shard.
+ * The main index keeps the commit user data (progress, manifest) and the records of earlier unsharded
+ * loads. At the end of a load the shards are merged into the main index with addIndexes, or left in
+ * place and searched together with it through a MultiReader, see openReader().
+ *
+ * A checkpoint commits every shard, then the main index; each commit is tagged with the same checkpoint
+ * number. A load killed between the two leaves shards one commit ahead of the main index, so shard
+ * writers keep their last two commits, and a shard found ahead is reopened at the commit matching the
+ * main index; resuming from the main index's progress then neither repeats nor misses a record.
+ *
+ * Main index user data:
+ *   shards              number of shards not merged yet; 0 or absent when none.
+ *   shards.checkpoint   number of the last checkpoint, also in the user data of each shard's commit.
+ *
+ * @author Brian G. Feldman <bgfeldm@yahoo.com>
+ */
+public class Shards implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(Shards.class);
+
+	/** Name of the directory of shards within an index directory. */
+	public static final String DIRECTORY_NAME = "shards";
+
+	/** Commit user data key holding the number of shards not merged yet. */
+	public static final String COUNT_KEY = "shards";
+
+	/** Commit user data key holding the checkpoint number. */
+	public static final String CHECKPOINT_KEY = "shards.checkpoint";
+
+	private final File indexDirectory;
+	private final Directory[] directories;
+	private final IndexWriter[] writers;
+	private final boolean routeByFile;
+	private long checkpoint;
+
+	/**
+	 * Open the shards of an index, creating the ones it does not have yet.
+	 *
+	 * @param indexDirectory
+	 * @param count				number of shards, at least those not merged yet.
+	 * @param route				roundrobin or file.
+	 * @param commitData		user data of the main index's last commit.
+	 * @param config			writer settings; the RAM buffer is shared between the shards.
+	 * @throws IOException
+	 */
+	public Shards(final File indexDirectory, final int count, final String route, final Map<String, String> commitData, final Configuration config) throws IOException {
+		this.indexDirectory = indexDirectory;
+		this.routeByFile = "file".equalsIgnoreCase(route);
+		this.directories = new Directory[count];
+		this.writers = new IndexWriter[count];
+
+		int existing = count(commitData);
+		checkpoint = (commitData.containsKey(CHECKPOINT_KEY) ? Long.parseLong(commitData.get(CHECKPOINT_KEY)) : 0);
+		if (existing == 0){
+			deleteAll(indexDirectory);  // left by a merge or a first checkpoint that did not complete.
+		}
+
+		for(int i=0; i < count; i++){
+			directories[i] = NIOFSDirectory.open(shardDirectory(indexDirectory, i));
+			IndexWriterConfig iwc = config.getIndexWriterConfig();
+			iwc.setRAMBufferSizeMB(Math.max(16, iwc.getRAMBufferSizeMB() / count));
+			iwc.setIndexDeletionPolicy(new KeepLastCommits(2));
+			if (i >= existing){
+				iwc.setOpenMode(OpenMode.CREATE);
+			} else {
+				IndexCommit commit = commitAt(directories[i], checkpoint);
+				if (commit != null && !commit.equals(latestCommit(directories[i]))){
+					LOG.warn("Shard {} is ahead of the last checkpoint; reopening it at checkpoint {}", i, checkpoint);
+					iwc.setIndexCommit(commit);
+				} else if (commit == null){
+					LOG.error("Shard {} has no commit of checkpoint {}; opening its latest", i, checkpoint);
+				}
+			}
+			writers[i] = new IndexWriter(directories[i], iwc);
+		}
+		LOG.info("Writing {} shards, routed {}", count, (routeByFile ? "by file" : "round robin"));
+	}
+
+	/**
+	 * @param commitData	user data of the main index's commit.
+	 * @return number of shards not merged into the main index.
+	 */
+	public static int count(final Map<String, String> commitData){
+		String count = commitData.get(COUNT_KEY);
+		return (count != null ? Integer.parseInt(count) : 0);
+	}
+
+	/**
+	 * @param indexDirectory
+	 * @param shard
+	 * @return directory of a shard.
+	 */
+	public static File shardDirectory(final File indexDirectory, final int shard){
+		return new File(new File(indexDirectory, DIRECTORY_NAME), "shard-" + shard);
+	}
+
+	private static void deleteAll(final File indexDirectory) throws IOException {
+		File shardsDirectory = new File(indexDirectory, DIRECTORY_NAME);
+		if (shardsDirectory.exists()){
+			FileUtils.deleteDirectory(shardsDirectory);
+		}
+	}
+
+	/**
+	 * Find the commit of a shard tagged with a checkpoint.
+	 *
+	 * @param directory
+	 * @param checkpoint
+	 * @return commit, or null when there is none.
+	 * @throws IOException
+	 */
+	private static IndexCommit commitAt(final Directory directory, final long checkpoint) throws IOException {
+		for(IndexCommit commit : DirectoryReader.listCommits(directory)){
+			if (String.valueOf(checkpoint).equals(commit.getUserData().get(CHECKPOINT_KEY))){
+				return commit;
+			}
+		}
+		return null;
+	}
+
+	private static IndexCommit latestCommit(final Directory directory) throws IOException {
+		List<IndexCommit> commits = DirectoryReader.listCommits(directory);
+		return commits.get(commits.size() - 1);
+	}
+
+	/**
+	 * @return number of shards.
+	 */
+	public int size(){
+		return writers.length;
+	}
+
+	/**
+	 * Pick the writer of a batch.
+	 *
+	 * @param fileName		file the records were read from.
+	 * @param sequence		sequence number of the batch.
+	 * @return writer
+	 */
+	public IndexWriter route(final String fileName, final long sequence){
+		if (routeByFile){
+			return writers[(fileName.hashCode() & Integer.MAX_VALUE) % writers.length];
+		}
+		return writers[(int) (sequence % writers.length)];
+	}
+
+	/**
+	 * Delete documents from every shard.
+	 *
+	 * @param term
+	 * @throws IOException
+	 */
+	public void deleteDocuments(final Term term) throws IOException {
+		for(IndexWriter writer : writers){
+			writer.deleteDocuments(term);
+		}
+	}
+
+	/**
+	 * @return bytes held in memory by the shard writers.
+	 */
+	public long ramBytesUsed(){
+		long bytes = 0;
+		for(IndexWriter writer : writers){
+			bytes += writer.ramBytesUsed();
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return documents buffered by the shard writers.
+	 */
+	public int numRamDocs(){
+		int docs = 0;
+		for(IndexWriter writer : writers){
+			docs += writer.numRamDocs();
+		}
+		return docs;
+	}
+
+	/**
+	 * @return segments being merged in the shards.
+	 */
+	public int getMergingSegments(){
+		int segments = 0;
+		for(IndexWriter writer : writers){
+			segments += writer.getMergingSegments().size();
+		}
+		return segments;
+	}
+
+	/**
+	 * @return whether merges of any shard are waiting for a merge thread.
+	 */
+	public boolean hasPendingMerges(){
+		for(IndexWriter writer : writers){
+			if (writer.hasPendingMerges()){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Commit every shard under the next checkpoint number, then add the shards to the main index's user data,
+	 * to be committed right after.
+	 *
+	 * @param commitData	user data of the main index's next commit.
+	 * @throws IOException
+	 */
+	public void commit(final Map<String, String> commitData) throws IOException {
+		long next = checkpoint + 1;
+		for(IndexWriter writer : writers){
+			writer.setCommitData(Collections.singletonMap(CHECKPOINT_KEY, String.valueOf(next)));
+			writer.commit();
+		}
+		checkpoint = next;
+		commitData.put(COUNT_KEY, String.valueOf(writers.length));
+		commitData.put(CHECKPOINT_KEY, String.valueOf(checkpoint));
+	}
+
+	/**
+	 * Merge the committed shards into the main index, then delete them.
+	 *
+	 * @param writer	writer of the main index, committed with the shards' last checkpoint.
+	 * @throws IOException
+	 */
+	public void mergeInto(final IndexWriter writer) throws IOException {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		close();
+		writer.addIndexes(directories);
+
+		Map<String, String> commitData = new HashMap<String, String>(writer.getCommitData());
+		commitData.remove(COUNT_KEY);
+		commitData.remove(CHECKPOINT_KEY);
+		writer.setCommitData(commitData);
+		writer.commit();
+		for(Directory directory : directories){
+			directory.close();
+		}
+		deleteAll(indexDirectory);
+		LOG.info("Merged {} shards into the index; time: {}", writers.length, stopwatch);
+	}
+
+	/**
+	 * Discard what the shard writers hold since the last checkpoint, and close them.
+	 *
+	 * @throws IOException
+	 */
+	public void rollback() throws IOException {
+		for(IndexWriter writer : writers){
+			writer.rollback();
+		}
+	}
+
+	/**
+	 * Close the shard writers, leaving the shards to be searched with the main index.
+	 */
+	@Override
+	public void close() throws IOException {
+		for(IndexWriter writer : writers){
+			writer.close();
+		}
+	}
+
+	/**
+	 * Open an index for searching, together with its shards not merged yet, each at the main index's last checkpoint.
+	 *
+	 * @param indexDirectory
+	 * @return reader
+	 * @throws IOException
+	 */
+	public static IndexReader openReader(final File indexDirectory) throws IOException {
+		DirectoryReader main = DirectoryReader.open(NIOFSDirectory.open(indexDirectory));
+		Map<String, String> commitData = main.getIndexCommit().getUserData();
+		int count = count(commitData);
+		if (count == 0){
+			return main;
+		}
+
+		long checkpoint = Long.parseLong(commitData.get(CHECKPOINT_KEY));
+		IndexReader[] readers = new IndexReader[count + 1];
+		readers[0] = main;
+		for(int i=0; i < count; i++){
+			Directory directory = NIOFSDirectory.open(shardDirectory(indexDirectory, i));
+			IndexCommit commit = commitAt(directory, checkpoint);
+			if (commit == null){
+				throw new IndexNotFoundException("No commit of checkpoint " + checkpoint + " in shard " + i);
+			}
+			readers[i + 1] = DirectoryReader.open(commit);
+		}
+		return new MultiReader(readers);
+	}
+
+	/**
+	 * Keeps the last few commits, so a shard can be taken back to the commit of the last checkpoint.
+	 */
+	private static class KeepLastCommits extends IndexDeletionPolicy {
+		private final int keep;
+
+		KeepLastCommits(final int keep){
+			this.keep = keep;
+		}
+
+		@Override
+		public void onInit(List<? extends IndexCommit> commits){
+			onCommit(commits);
+		}
+
+		@Override
+		public void onCommit(List<? extends IndexCommit> commits){
+			for(int i=0; i < commits.size() - keep; i++){
+				commits.get(i).delete();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,200 @@
+/**
+ *
+ */
+package us.brianfeldman.lucene;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * WorkerController sizes the pool of worker threads from the throughput it measures, instead of a fixed
+ * number of threads per core.
+ *
+ * Every worker thread up to the most allowed is started, but only the first active ones take batches
+ * from the ring; the others wait. Every few seconds the controller samples the records indexed per second,
+ * the batches queued in the ring on average, and the time workers spend per record, which rises when the writer
+ * stalls on flushes or the threads contend for the cpu, then:
+ *
+ *   shrinks   when the ring is nearly empty; the readers are behind and the workers wait for records.
+ *   undoes    its last step when throughput dropped since, then holds for a few samples.
+ *   grows     when batches queue up in the ring; the workers are behind.
+ *   holds     otherwise.
+ *
+ * Each decision is logged, with the sample it is based on.
+ *
+ * @author Brian G. Feldman <bgfeldm@yahoo.com>
+ */
+public class WorkerController {
+	private static final Logger LOG = LoggerFactory.getLogger(WorkerController.class);
+
+	private static final double TOLERANCE = 0.05;  // throughput change taken as noise.
+	private static final int SETTLE_SAMPLES = 3;  // samples held after undoing a step.
+	private static final int DEPTH_READS = 20;  // reads of the ring's depth averaged per sample.
+
+	private final RecordRing ring;
+	private final int minWorkers;
+	private final int maxWorkers;
+	private final long intervalMillis;
+	private final AtomicLong records = new AtomicLong();
+	private final AtomicLong busyNanos = new AtomicLong();
+	private volatile int active;
+	private volatile boolean stopped = false;
+	private Thread thread;
+
+	/**
+	 * @param ring				ring the workers take batches from.
+	 * @param initialWorkers	workers active at the start.
+	 * @param minWorkers
+	 * @param maxWorkers		worker threads started.
+	 * @param intervalSeconds	seconds between samples; 0 keeps the initial number of workers.
+	 */
+	public WorkerController(final RecordRing ring, final int initialWorkers, final int minWorkers, final int maxWorkers, final int intervalSeconds){
+		this.ring = ring;
+		this.minWorkers = Math.max(1, minWorkers);
+		this.maxWorkers = Math.max(this.minWorkers, maxWorkers);
+		this.intervalMillis = intervalSeconds * 1000L;
+		this.active = Math.min(this.maxWorkers, Math.max(this.minWorkers, initialWorkers));
+	}
+
+	/**
+	 * @return worker threads to start.
+	 */
+	public int getMaxWorkers(){
+		return maxWorkers;
+	}
+
+	/**
+	 * @return workers taking batches.
+	 */
+	public int getActiveWorkers(){
+		return active;
+	}
+
+	/**
+	 * Start sampling in the background.
+	 */
+	public void start(){
+		if (intervalMillis <= 0 || minWorkers == maxWorkers){
+			LOG.info("Indexing with {} worker threads", active);
+			return;
+		}
+		LOG.info("Indexing with {} worker threads, adjusted between {} and {} every {} ms", active, minWorkers, maxWorkers, intervalMillis);
+		thread = new Thread("worker-controller"){
+			@Override
+			public void run(){
+				control();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop adjusting, and let every waiting worker go, so all of them see the ring shut down.
+	 */
+	public void stop(){
+		stopped = true;
+		if (thread != null){
+			thread.interrupt();
+		}
+		synchronized(this){
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Wait while a worker is beyond the active workers. Called by a worker before taking a batch.
+	 *
+	 * @param worker	number of the worker, from 0.
+	 */
+	public void awaitTurn(final int worker){
+		if (worker < active || stopped){
+			return;
+		}
+		synchronized(this){
+			while(worker >= active && !stopped){
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Count records indexed by a worker.
+	 *
+	 * @param count		records indexed.
+	 * @param nanos		time taken indexing them.
+	 */
+	public void indexed(final int count, final long nanos){
+		records.addAndGet(count);
+		busyNanos.addAndGet(nanos);
+	}
+
+	private void control(){
+		long lastTime = System.nanoTime();
+		double lastRate = -1;
+		int lastStep = 0;
+		int settle = 0;
+		while(!stopped){
+			long depthSum = 0;
+			for(int r=0; r < DEPTH_READS; r++){
+				try {
+					Thread.sleep(intervalMillis / DEPTH_READS);
+				} catch (InterruptedException e) {
+					return;
+				}
+				depthSum += ring.depth();
+			}
+			double depth = (double) depthSum / DEPTH_READS;
+			long now = System.nanoTime();
+			double seconds = (now - lastTime) / 1e9;
+			lastTime = now;
+			long count = records.getAndSet(0);
+			long busy = busyNanos.getAndSet(0);
+			if (count == 0){
+				continue;  // between files, or waiting on a commit.
+			}
+			double rate = count / seconds;
+			double microsPerRecord = busy / 1000.0 / count;
+			int workers = active;
+
+			int step = 0;
+			String reason;
+			if (settle > 0){
+				settle--;
+				reason = "settling";
+			} else if (depth < workers && workers > minWorkers){
+				step = -1;
+				reason = "workers wait for records";
+			} else if (lastStep != 0 && lastRate > 0 && rate < lastRate * (1 - TOLERANCE)){
+				step = -lastStep;
+				settle = SETTLE_SAMPLES;
+				reason = "throughput dropped after the last step";
+			} else if (depth >= ring.size() / 2 && workers < maxWorkers){
+				step = 1;
+				reason = "records queue up";
+			} else {
+				reason = "steady";
+			}
+			step = Math.max(minWorkers, Math.min(maxWorkers, workers + step)) - workers;
+
+			LOG.info("Workers: {} -> {} ({}); {} records/s, {} of {} slots queued, {} us/record",
+					workers, workers + step, reason, (long) rate, String.format("%.1f", depth), ring.size(), String.format("%.1f", microsPerRecord));
+			if (step != 0){
+				synchronized(this){
+					active = workers + step;
+					notifyAll();
+				}
+			}
+			lastStep = step;
+			lastRate = rate;
+		}
+	}
+
+}